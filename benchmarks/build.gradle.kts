@@ -0,0 +1,33 @@
+plugins {
+    id("cc.mewcraft.repo-conventions")
+    id("cc.mewcraft.java-conventions")
+    id("me.champeau.jmh") version "0.7.2"
+}
+
+description = "JMH benchmarks for the hot paths of MewUtils"
+
+dependencies {
+    // the code under test
+    jmh(project(":mewutils:base"))
+    jmh(project(":mewutils:plugin"))
+
+    // server, helper and protocollib are only compileOnly in the plugin
+    jmh(libs.server.paper)
+    jmh(libs.helper)
+    jmh(libs.protocollib)
+}
+
+jmh {
+    // throughput, plus latency percentiles from the sample mode
+    benchmarkMode.set(listOf("thrpt", "sample"))
+    timeUnit.set("us")
+    // allocation rate per op
+    profilers.set(listOf("gc"))
+    fork.set(1)
+    warmupIterations.set(3)
+    warmupBatchSize.set(1)
+    iterations.set(5)
+    resultFormat.set("JSON")
+    // run a subset with -PjmhInclude=<regex>
+    project.findProperty("jmhInclude")?.let { includes.set(listOf(it.toString())) }
+}
@@ -0,0 +1,108 @@
+package cc.mewcraft.mewutils.benchmark;
+
+import cc.mewcraft.mewutils.MewPlugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Lightweight stand-ins for the Bukkit types the benchmarked code touches.
+ * <p>
+ * The stand-ins are dynamic proxies answering a fixed set of methods by name, and the default value of the return
+ * type for everything else. Methods without parameters do not allocate, so they add no noise to the allocation rate
+ * as long as their return value needs no boxing.
+ */
+public final class StandIns {
+
+    /**
+     * Creates a proxy of given interface.
+     *
+     * @param type    the interface
+     * @param answers the return values by method name
+     */
+    public static <T> T proxy(Class<T> type, Map<String, Object> answers) {
+        Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (self, method, args) -> {
+            switch (method.getName()) {
+                case "equals":
+                    return self == args[0];
+                case "hashCode":
+                    return System.identityHashCode(self);
+                case "toString":
+                    return type.getSimpleName() + answers;
+            }
+            if (answers.containsKey(method.getName()))
+                return answers.get(method.getName());
+            return defaultValue(method.getReturnType());
+        });
+        return type.cast(proxy);
+    }
+
+    /**
+     * Creates a plugin with its own temporary data folder, enough to construct modules.
+     */
+    public static MewPlugin plugin() {
+        try {
+            File dataFolder = Files.createTempDirectory("mewutils-benchmark").toFile();
+            dataFolder.deleteOnExit();
+            return proxy(MewPlugin.class, Map.of(
+                    "getName", "MewUtils",
+                    "getDataFolder", dataFolder,
+                    "getLogger", Logger.getLogger("MewUtils"),
+                    "parentClassLoader", MewPlugin.class.getClassLoader(),
+                    "isDevMode", false
+            ));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Sets a field which is normally populated from the config when a module loads.
+     */
+    public static void setField(Object target, String name, Object value) {
+        for (Class<?> type = target.getClass(); type != null; type = type.getSuperclass()) {
+            try {
+                Field field = type.getDeclaredField(name);
+                field.setAccessible(true);
+                field.set(target, value);
+                return;
+            } catch (NoSuchFieldException ignored) {
+                // look in the superclass
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        throw new IllegalArgumentException("No field " + name + " in " + target.getClass());
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class)
+            return null;
+        if (type == boolean.class)
+            return false;
+        if (type == char.class)
+            return '\0';
+        if (type == float.class)
+            return 0F;
+        if (type == double.class)
+            return 0D;
+        if (type == long.class)
+            return 0L;
+        if (type == int.class)
+            return 0;
+        if (type == short.class)
+            return (short) 0;
+        return (byte) 0;
+    }
+
+    private StandIns() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+
+}
@@ -0,0 +1,41 @@
+package cc.mewcraft.mewutils.module.case_insensitive_commands;
+
+import cc.mewcraft.mewutils.benchmark.StandIns;
+import org.bukkit.entity.Player;
+import org.bukkit.event.player.PlayerCommandPreprocessEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The command preprocessor, which sees every command typed by a player.
+ */
+@State(Scope.Thread)
+public class CaseInsensitiveCommandsBenchmark {
+
+    @Param({"/spawn", "/TPA Notch", "/msg Notch hello there, how are you doing today?"})
+    public String message;
+
+    private CaseInsensitiveCommandsModule module;
+    private PlayerCommandPreprocessEvent event;
+
+    @Setup
+    public void setup() {
+        Player player = StandIns.proxy(Player.class, Map.of("getName", "Notch"));
+        this.module = new CaseInsensitiveCommandsModule(StandIns.plugin());
+        this.event = new PlayerCommandPreprocessEvent(player, this.message, Set.of());
+    }
+
+    @Benchmark
+    public String onCommand() {
+        this.event.setMessage(this.message);
+        this.module.onCommand(this.event);
+        return this.event.getMessage();
+    }
+
+}
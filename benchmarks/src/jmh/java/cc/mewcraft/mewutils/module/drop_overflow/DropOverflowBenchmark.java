@@ -0,0 +1,64 @@
+package cc.mewcraft.mewutils.module.drop_overflow;
+
+import cc.mewcraft.mewutils.benchmark.StandIns;
+import org.bukkit.Material;
+import org.bukkit.entity.Item;
+import org.bukkit.event.entity.ItemMergeEvent;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.EnumSet;
+import java.util.Map;
+
+/**
+ * The item merge listener, which sees every merge of dropped items around farms.
+ */
+@State(Scope.Thread)
+public class DropOverflowBenchmark {
+
+    private DropOverflowModule module;
+    private ItemMergeEvent otherType;
+    private ItemMergeEvent belowThreshold;
+    private ItemMergeEvent overThreshold;
+
+    @Setup
+    public void setup() {
+        this.module = new DropOverflowModule(StandIns.plugin());
+        StandIns.setField(this.module, "types", EnumSet.of(Material.COBBLESTONE, Material.KELP));
+        StandIns.setField(this.module, "mergeLimitThreshold", 32);
+
+        this.otherType = mergeEvent(new ItemStack(Material.DIAMOND, 64), new ItemStack(Material.DIAMOND, 64));
+        this.belowThreshold = mergeEvent(new ItemStack(Material.KELP, 8), new ItemStack(Material.KELP, 8));
+        // removing the stand-ins does nothing, so the event stays the same
+        this.overThreshold = mergeEvent(new ItemStack(Material.KELP, 64), new ItemStack(Material.KELP, 8));
+    }
+
+    private static ItemMergeEvent mergeEvent(ItemStack entity, ItemStack target) {
+        return new ItemMergeEvent(
+                StandIns.proxy(Item.class, Map.of("getItemStack", entity)),
+                StandIns.proxy(Item.class, Map.of("getItemStack", target))
+        );
+    }
+
+    @Benchmark
+    public ItemMergeEvent otherType() {
+        this.module.onMerge(this.otherType);
+        return this.otherType;
+    }
+
+    @Benchmark
+    public ItemMergeEvent belowThreshold() {
+        this.module.onMerge(this.belowThreshold);
+        return this.belowThreshold;
+    }
+
+    @Benchmark
+    public ItemMergeEvent overThreshold() {
+        this.module.onMerge(this.overThreshold);
+        return this.overThreshold;
+    }
+
+}
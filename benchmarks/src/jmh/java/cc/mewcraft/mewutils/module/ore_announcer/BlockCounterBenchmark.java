@@ -0,0 +1,110 @@
+package cc.mewcraft.mewutils.module.ore_announcer;
+
+import org.bukkit.Material;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Counts synthetic veins of different shapes with each neighborhood.
+ */
+@State(Scope.Thread)
+public class BlockCounterBenchmark {
+
+    private static final int SIDE = 64;
+    private static final int CENTER = SIDE / 2;
+    private static final UUID WORLD = UUID.randomUUID();
+
+    public enum Layout {
+        /**
+         * A solid ball, the typical vein.
+         */
+        BLOB,
+        /**
+         * A chain touching by corners only, so the result depends on the neighborhood.
+         */
+        DIAGONAL,
+        /**
+         * Randomly scattered ores, mostly isolated ones.
+         */
+        SCATTERED
+    }
+
+    @Param({"CONNECTED_6", "CONNECTED_18", "CONNECTED_26", "LEGACY"})
+    public Neighborhood neighborhood;
+
+    @Param({"BLOB", "DIAGONAL", "SCATTERED"})
+    public Layout layout;
+
+    private ArrayBlockSource source;
+    private BlockCounter counter;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Reads {
+        public long blocksRead;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.blocksRead = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setupSource() {
+        boolean[] ores = new boolean[SIDE * SIDE * SIDE];
+        Random random = new Random(42);
+        for (int x = 0; x < SIDE; x++) {
+            for (int y = 0; y < SIDE; y++) {
+                for (int z = 0; z < SIDE; z++) {
+                    int dx = x - CENTER, dy = y - CENTER, dz = z - CENTER;
+                    ores[(x * SIDE + y) * SIDE + z] = switch (this.layout) {
+                        case BLOB -> dx * dx + dy * dy + dz * dz <= 9;
+                        case DIAGONAL -> dx == dy && dy == dz && Math.abs(dx) <= 16;
+                        case SCATTERED -> (dx == 0 && dy == 0 && dz == 0) || random.nextInt(10) == 0;
+                    };
+                }
+            }
+        }
+        this.source = new ArrayBlockSource(ores);
+        this.counter = new BlockCounter(1024, this.neighborhood, new DiscoveredIndex(0));
+    }
+
+    @Setup(Level.Invocation)
+    public void clearDiscovered() {
+        // or every search after the first one would stop at the start block
+        this.counter.getDiscovered().evictWorld(WORLD);
+    }
+
+    @Benchmark
+    public int count(Reads reads) {
+        this.source.reads = 0;
+        int count = this.counter.count(this.source, WORLD, CENTER, CENTER, CENTER, Material.DIAMOND_ORE);
+        reads.blocksRead += this.source.reads;
+        return count;
+    }
+
+    private static final class ArrayBlockSource implements BlockSource {
+        private final boolean[] ores;
+        private long reads;
+
+        private ArrayBlockSource(boolean[] ores) {
+            this.ores = ores;
+        }
+
+        @Override public Material getType(int x, int y, int z) {
+            this.reads++;
+            if (x < 0 || x >= SIDE || y < 0 || y >= SIDE || z < 0 || z >= SIDE)
+                return Material.AIR;
+            return this.ores[(x * SIDE + y) * SIDE + z] ? Material.DIAMOND_ORE : Material.STONE;
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+package cc.mewcraft.mewutils.module.ore_announcer;
+
+import cc.mewcraft.mewutils.benchmark.StandIns;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Startup cost of replaying a large journal into an empty index.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class DiscoveryJournalBenchmark {
+
+    @Param({"1000000"})
+    public int entries;
+
+    private OreAnnouncerModule module;
+    private Path directory;
+    private DiscoveryJournal journal;
+
+    @Setup(Level.Trial)
+    public void setupModule() {
+        this.module = new OreAnnouncerModule(StandIns.plugin());
+    }
+
+    @Setup(Level.Iteration)
+    public void writeJournal() throws IOException {
+        this.directory = Files.createTempDirectory("mewutils-journal");
+        DiscoveryJournal writer = new DiscoveryJournal(this.module, this.directory, 0, Long.MAX_VALUE);
+        writer.replay(new DiscoveredIndex(0));
+        UUID[] worlds = {UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID()};
+        Random random = new Random(42);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < this.entries; i++) {
+            int x = random.nextInt(20000) - 10000;
+            int y = random.nextInt(128) - 64;
+            int z = random.nextInt(20000) - 10000;
+            writer.append(worlds[i % worlds.length], DiscoveredIndex.blockKey(x, y, z), now - i);
+        }
+        writer.close();
+        this.journal = new DiscoveryJournal(this.module, this.directory, 0, Long.MAX_VALUE);
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteJournal() throws IOException {
+        this.journal.close();
+        try (Stream<Path> files = Files.walk(this.directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long replay() throws IOException {
+        return this.journal.replay(new DiscoveredIndex(0));
+    }
+
+}
@@ -0,0 +1,63 @@
+package cc.mewcraft.mewutils.module.ore_announcer;
+
+import cc.mewcraft.mewutils.benchmark.StandIns;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * The filter in front of the ore announcer, which sees every block break. Rejecting a non-ore block should not
+ * allocate.
+ */
+@State(Scope.Thread)
+public class ShouldAnnounceBenchmark {
+
+    private OreAnnouncerModule module;
+    private Block stone;
+    private Block ore;
+    private Block oreInOtherWorld;
+
+    @Setup
+    public void setup() {
+        World world = StandIns.proxy(World.class, Map.of("getUID", UUID.randomUUID(), "getName", "world"));
+        World other = StandIns.proxy(World.class, Map.of("getUID", UUID.randomUUID(), "getName", "world_nether"));
+        this.stone = StandIns.proxy(Block.class, Map.of("getType", Material.STONE, "getWorld", world));
+        this.ore = StandIns.proxy(Block.class, Map.of("getType", Material.DIAMOND_ORE, "getWorld", world, "getX", 8, "getY", 12, "getZ", 8));
+        this.oreInOtherWorld = StandIns.proxy(Block.class, Map.of("getType", Material.DIAMOND_ORE, "getWorld", other));
+
+        Set<World> enabledWorlds = Collections.newSetFromMap(new IdentityHashMap<>());
+        enabledWorlds.add(world);
+
+        this.module = new OreAnnouncerModule(StandIns.plugin());
+        StandIns.setField(this.module, "enabledMaterials", EnumSet.of(Material.DIAMOND_ORE, Material.DEEPSLATE_DIAMOND_ORE));
+        StandIns.setField(this.module, "enabledWorlds", enabledWorlds);
+        StandIns.setField(this.module, "blockCounter", new BlockCounter(32, Neighborhood.LEGACY, new DiscoveredIndex(0)));
+    }
+
+    @Benchmark
+    public boolean rejectStone() {
+        return this.module.shouldAnnounce(this.stone);
+    }
+
+    @Benchmark
+    public boolean rejectOtherWorld() {
+        return this.module.shouldAnnounce(this.oreInOtherWorld);
+    }
+
+    @Benchmark
+    public boolean acceptOre() {
+        return this.module.shouldAnnounce(this.ore);
+    }
+
+}
@@ -0,0 +1,132 @@
+package cc.mewcraft.mewutils.module.packet_filter;
+
+import cc.mewcraft.mewutils.benchmark.StandIns;
+import com.comphenix.protocol.PacketType;
+import com.comphenix.protocol.events.PacketContainer;
+import com.comphenix.protocol.events.PacketEvent;
+import com.comphenix.protocol.reflect.StructureModifier;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The ProtocolLib listener, from the {@link PacketEvent} to the decision, for every outgoing packet of a filtered type.
+ * <p>
+ * ProtocolLib only needs a server to find the packet classes, so the packets wrap stand-ins with the field layout of
+ * the vanilla ones, and are read through the same {@link StructureModifier}s.
+ */
+@State(Scope.Thread)
+public class PacketFilterBenchmark {
+
+    @Param({"BLOCK", "THIN"})
+    public PacketFilterPolicy.AfkMode afkMode;
+
+    private ProtocolLibHook.PacketBlocker blocker;
+    private Player afkPlayer;
+    private Player activePlayer;
+    private PacketContainer otherEntityMove;
+    private PacketContainer whitelistedEntityMove;
+    private PacketContainer particles;
+
+    // the field layout of ClientboundMoveEntityPacket.Pos
+    @SuppressWarnings("unused")
+    private static final class MoveEntityPacket {
+        private final int entityId;
+        private short xa = 4096;
+        private short ya;
+        private short za;
+        private byte yRot;
+        private byte xRot;
+        private boolean onGround = true;
+        private boolean hasRot;
+        private boolean hasPos = true;
+
+        private MoveEntityPacket(int entityId) {
+            this.entityId = entityId;
+        }
+    }
+
+    // the leading fields of ClientboundLevelParticlesPacket
+    @SuppressWarnings("unused")
+    private static final class LevelParticlesPacket {
+        private double x;
+        private double y = 64;
+        private double z;
+        private float xDist;
+        private float yDist;
+        private float zDist;
+        private float maxSpeed;
+        private int count = 8;
+        private boolean overrideLimiter;
+    }
+
+    @Setup
+    public void setup() {
+        List<Player> online = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            online.add(StandIns.proxy(Player.class, Map.of("getUniqueId", UUID.randomUUID())));
+        this.afkPlayer = online.get(0);
+        this.activePlayer = online.get(1);
+
+        PacketFilterModule module = new PacketFilterModule(StandIns.plugin());
+        PlayerContexts contexts = new PlayerContexts(online, 0);
+        for (int i = 0; i < 50; i++)
+            contexts.get(online.get(i * 2)).setAfk(true);
+        List<PacketType> blocked = List.of(PacketType.Play.Server.REL_ENTITY_MOVE, PacketType.Play.Server.WORLD_PARTICLES);
+        PacketFilterPolicy policy = new PacketFilterPolicy(this.afkMode, 20);
+        StandIns.setField(module, "playerContexts", contexts);
+        StandIns.setField(module, "policy", policy);
+        StandIns.setField(module, "rules", new PacketRules(blocked, EnumSet.of(EntityType.ARMOR_STAND), List.of()));
+        StandIns.setField(module, "statistics", new PacketStatistics(blocked));
+        StandIns.setField(module, "shaper", new PacketShaper(0));
+        StandIns.setField(module, "resyncTracker", new ResyncTracker(module, null));
+        this.blocker = new ProtocolLibHook.PacketBlocker(module, blocked);
+
+        int whitelistedEntity = 100_000;
+        policy.whitelistEntityIds.add(whitelistedEntity);
+        this.whitelistedEntityMove = packet(PacketType.Play.Server.REL_ENTITY_MOVE, new MoveEntityPacket(whitelistedEntity));
+        this.otherEntityMove = packet(PacketType.Play.Server.REL_ENTITY_MOVE, new MoveEntityPacket(whitelistedEntity + 1));
+        this.particles = packet(PacketType.Play.Server.WORLD_PARTICLES, new LevelParticlesPacket());
+    }
+
+    private static PacketContainer packet(PacketType type, Object handle) {
+        return new PacketContainer(type, handle, new StructureModifier<>(handle.getClass()).withTarget(handle));
+    }
+
+    private boolean send(Player player, PacketContainer packet) {
+        PacketEvent event = PacketEvent.fromServer(this, packet, player);
+        this.blocker.onPacketSending(event);
+        return event.isCancelled();
+    }
+
+    @Benchmark
+    public boolean activePlayer() {
+        return send(this.activePlayer, this.otherEntityMove);
+    }
+
+    @Benchmark
+    public boolean afkPlayer() {
+        return send(this.afkPlayer, this.otherEntityMove);
+    }
+
+    @Benchmark
+    public boolean afkPlayerWhitelistedEntity() {
+        return send(this.afkPlayer, this.whitelistedEntityMove);
+    }
+
+    @Benchmark
+    public boolean afkPlayerNonEntityPacket() {
+        return send(this.afkPlayer, this.particles);
+    }
+
+}
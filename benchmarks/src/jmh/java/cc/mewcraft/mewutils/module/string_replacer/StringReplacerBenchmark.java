@@ -0,0 +1,127 @@
+package cc.mewcraft.mewutils.module.string_replacer;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.format.NamedTextColor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * The replacement of the window titles and item names sent to a player.
+ */
+@State(Scope.Thread)
+public class StringReplacerBenchmark {
+
+    @Param({"10", "1000"})
+    public int rules;
+
+    private ComponentReplacer replacer;
+    private ComponentReplacer patternReplacer;
+    private ReplacementCache cache;
+    private String hit;
+    private String styledHit;
+    private String splitHit;
+    private String styledMiss;
+    private String miss;
+    private String patternHit;
+    private List<String> itemNames;
+
+    @Setup
+    public void setup() {
+        List<ComponentReplacer.Rule> rules = new ArrayList<>();
+        for (int i = 0; i < this.rules; i++)
+            rules.add(new ComponentReplacer.Literal(Component.text("Menu " + i), Component.text("Replaced " + i, NamedTextColor.GOLD)));
+        this.replacer = new ComponentReplacer(rules);
+        this.cache = new ReplacementCache(this.replacer, 4096);
+        // literal and pattern rules, interleaved
+        List<ComponentReplacer.Rule> mixed = new ArrayList<>();
+        for (int i = 0; i < this.rules; i++) {
+            mixed.add(i % 2 == 0
+                    ? new ComponentReplacer.Regex(Pattern.compile("Shop " + i + " - (.+)"), "<gold>Store " + i + " - <group:1>")
+                    : new ComponentReplacer.Literal(Component.text("Menu " + i), Component.text("Replaced " + i, NamedTextColor.GOLD)));
+        }
+        this.patternReplacer = new ComponentReplacer(mixed);
+        this.patternHit = "{\"text\":\"Shop " + (this.rules / 2 & ~1) + " - Weapons\"}";
+        this.hit = "{\"text\":\"Menu " + (this.rules / 2) + "\"}";
+        this.styledHit = "{\"color\":\"red\",\"text\":\"\",\"extra\":[{\"bold\":true,\"text\":\"Menu " + (this.rules / 2) + "\"}]}";
+        // the literal is split across segments with different styles
+        this.splitHit = "{\"text\":\"\",\"extra\":[{\"color\":\"red\",\"text\":\"Me\"},{\"text\":\"nu " + (this.rules / 2) + "\"}]}";
+        this.miss = "{\"translate\":\"container.chest\"}";
+        this.styledMiss = "{\"text\":\"\",\"extra\":[{\"color\":\"red\",\"text\":\"Chest\"},{\"text\":\" of Steve\"}]}";
+        // a chest of named items, none of which match, as the vanilla serializer writes their display.Name
+        this.itemNames = new ArrayList<>();
+        for (int i = 0; i < 54; i++)
+            this.itemNames.add("{\"extra\":[{\"italic\":false,\"color\":\"aqua\",\"text\":\"Item " + i + "\"},{\"text\":\" x" + i + "\"}],\"text\":\"\"}");
+    }
+
+    @Benchmark
+    public @Nullable String hit() {
+        return this.replacer.replace(this.hit);
+    }
+
+    @Benchmark
+    public @Nullable String styledHit() {
+        return this.replacer.replace(this.styledHit);
+    }
+
+    @Benchmark
+    public @Nullable String splitHit() {
+        return this.replacer.replace(this.splitHit);
+    }
+
+    @Benchmark
+    public @Nullable String miss() {
+        return this.replacer.replace(this.miss);
+    }
+
+    @Benchmark
+    public @Nullable String styledMiss() {
+        return this.replacer.replace(this.styledMiss);
+    }
+
+    @Benchmark
+    public @Nullable String patternHit() {
+        return this.patternReplacer.replace(this.patternHit);
+    }
+
+    @Benchmark
+    public @Nullable String patternMiss() {
+        return this.patternReplacer.replace(this.miss);
+    }
+
+    @Benchmark
+    public @Nullable Object cachedMiss() {
+        // a fresh string, as the JSON of every packet is
+        return this.cache.replace(new String(this.miss));
+    }
+
+    @Benchmark
+    public int cachedItemNamesMiss() {
+        int replaced = 0;
+        for (String name : this.itemNames) {
+            // a fresh string, as the NBT of every packet is
+            if (this.cache.replace(new String(name)) != null)
+                replaced++;
+        }
+        return replaced;
+    }
+
+    @Benchmark
+    public int itemNamesMiss() {
+        int replaced = 0;
+        for (String name : this.itemNames) {
+            if (this.replacer.replace(name) != null)
+                replaced++;
+        }
+        return replaced;
+    }
+
+}
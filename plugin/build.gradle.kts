@@ -25,6 +25,7 @@ dependencies {
 
     // server
     compileOnly(libs.server.paper)
+    compileOnly("io.netty:netty-transport:4.1.87.Final") // shipped with the server
 
     // helper
     compileOnly(libs.helper)
@@ -36,6 +37,16 @@ dependencies {
     compileOnly(libs.itemsadder)
     compileOnly(libs.protocollib)
     compileOnly(libs.essentials) { isTransitive = false }
+
+    // test, the server provides adventure, gson and fastutil, and the modules need helper
+    testImplementation(libs.server.paper)
+    testImplementation(libs.helper)
+    testImplementation(libs.junit.jupiter)
+    testRuntimeOnly(libs.junit.platform.launcher)
+}
+
+tasks.test {
+    useJUnitPlatform()
 }
 
 paper {
@@ -0,0 +1,102 @@
+package cc.mewcraft.mewutils.module.ore_announcer;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import me.lucko.helper.Schedulers;
+import me.lucko.helper.terminable.Terminable;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+
+/**
+ * Counts veins on a background thread from {@link org.bukkit.ChunkSnapshot}s captured on the main thread, see
+ * {@link CapturedBlockSource}.
+ * <p>
+ * The backlog is bounded: a request is coalesced into a pending one for the same ore type in the same chunk, as both
+ * most likely belong to the same vein, and it is dropped if the queue is full.
+ */
+public class AsyncBlockCounter implements Terminable {
+
+    private final OreAnnouncerModule module;
+    private final BlockCounter blockCounter; // only used by the worker thread
+    private final int snapshotRadius;
+    private final ThreadPoolExecutor executor;
+    private final Set<PendingKey> pending;
+
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public AsyncBlockCounter(OreAnnouncerModule module, BlockCounter blockCounter, int snapshotRadius, int queueCapacity) {
+        this.module = module;
+        this.blockCounter = blockCounter;
+        this.snapshotRadius = snapshotRadius;
+        this.executor = new ThreadPoolExecutor(
+                1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new ThreadFactoryBuilder().setNameFormat("MewUtils-OreAnnouncer-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+        this.pending = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Counts the vein starting at given block. Must be called on the main thread.
+     *
+     * @param block    the start block
+     * @param callback called on the main thread with the size of the vein, unless the request is coalesced, dropped
+     *                 or the block has been counted in the meantime
+     */
+    public void count(Block block, IntConsumer callback) {
+        World world = block.getWorld();
+        Material type = block.getType();
+        int x = block.getX();
+        int y = block.getY();
+        int z = block.getZ();
+
+        PendingKey key = new PendingKey(world.getUID(), DiscoveredIndex.chunkKey(x >> 4, z >> 4), type);
+        if (!this.pending.add(key)) {
+            this.coalesced.incrementAndGet();
+            return;
+        }
+
+        CapturedBlockSource source = CapturedBlockSource.capture(world, x, z, this.snapshotRadius);
+        try {
+            this.executor.execute(() -> {
+                this.pending.remove(key);
+                // another search may have reached this block while it was waiting
+                if (this.blockCounter.getDiscovered().contains(key.world(), x, y, z))
+                    return;
+                int count = this.blockCounter.count(source, key.world(), x, y, z, type);
+                Schedulers.sync().run(() -> callback.accept(count));
+            });
+        } catch (RejectedExecutionException e) {
+            this.pending.remove(key);
+            long total = this.dropped.incrementAndGet();
+            this.module.debug("Vein count queue is full, dropped a request (" + total + " dropped so far)");
+        }
+    }
+
+    public long getCoalescedCount() {
+        return this.coalesced.get();
+    }
+
+    public long getDroppedCount() {
+        return this.dropped.get();
+    }
+
+    @Override public void close() {
+        this.executor.shutdownNow();
+    }
+
+    private record PendingKey(UUID world, long chunk, Material type) {}
+
+}
@@ -1,104 +1,190 @@
 package cc.mewcraft.mewutils.module.ore_announcer;
 
-import org.bukkit.Location;
 import org.bukkit.Material;
-import org.bukkit.block.BlockFace;
+import org.bukkit.World;
+import org.bukkit.block.Block;
 
-import java.util.Collections;
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.Set;
-import java.util.WeakHashMap;
-
-import static org.bukkit.block.BlockFace.*;
+import java.util.Arrays;
+import java.util.UUID;
 
+/**
+ * Counts the blocks of a vein with a breadth-first search.
+ * <p>
+ * The search works on packed coordinates (see {@link DiscoveredIndex#blockKey(int, int, int)}) with a reusable ring
+ * buffer as the queue and a reusable bitset of visited blocks, so a search allocates nothing once warmed up. An
+ * instance is therefore not thread-safe.
+ */
 public class BlockCounter {
 
+    /**
+     * Half the side of the cube around the start block which is covered by the visited bitset. Blocks outside of it
+     * are still searched, but checked against the {@link DiscoveredIndex} only.
+     */
+    private static final int VISITED_RADIUS = 32;
+    private static final int VISITED_SIDE = VISITED_RADIUS * 2 + 1;
+
     /**
      * The maximum iteration for searching.
      */
     private final int searchBound;
 
     /**
-     * 这是搜索邻居的标准，可以根据要求进行修改。
+     * 这是搜索邻居的标准，可以在配置文件中修改。
      */
-    private final BlockFace[] neighbors = {
-            NORTH,
-            EAST,
-            SOUTH,
-            WEST,
-            UP,
-            DOWN,
-            NORTH_EAST,
-            NORTH_WEST,
-            SOUTH_EAST,
-            SOUTH_WEST,
-            WEST_NORTH_WEST,
-            NORTH_NORTH_WEST,
-            NORTH_NORTH_EAST,
-            EAST_NORTH_EAST,
-            EAST_SOUTH_EAST,
-            SOUTH_SOUTH_EAST,
-            SOUTH_SOUTH_WEST,
-            WEST_SOUTH_WEST
-    };
+    private final Neighborhood neighborhood;
+
+    // the neighbors above, as coordinate offsets
+    private final int[] offsetX;
+    private final int[] offsetY;
+    private final int[] offsetZ;
 
     /**
-     * A set containing locations where blocks are already marked as discovered on which the finder will not count.
+     * An index containing blocks already marked as discovered on which the finder will not count.
      */
-    private final Set<Location> discovered;
+    private final DiscoveredIndex discovered;
+
+    // --- reusable search state ---
+    private final SnapshotBlockSource blockSource;
+    private long[] queue; // ring buffer, length is a power of two
+    private final long[] visited; // bitset over the cube around the start block
+    private int[] touchedWords; // words of the bitset to clear after a search
+    private int touchedCount;
 
-    public BlockCounter(int searchBound) {
+    public BlockCounter(int searchBound, Neighborhood neighborhood, DiscoveredIndex discovered) {
         this.searchBound = searchBound;
-        this.discovered = Collections.newSetFromMap(new WeakHashMap<>());
+        this.neighborhood = neighborhood;
+        this.offsetX = neighborhood.offsetX();
+        this.offsetY = neighborhood.offsetY();
+        this.offsetZ = neighborhood.offsetZ();
+        this.discovered = discovered;
+
+        this.blockSource = new SnapshotBlockSource();
+        this.queue = new long[256];
+        this.visited = new long[(VISITED_SIDE * VISITED_SIDE * VISITED_SIDE + 63) >> 6];
+        this.touchedWords = new int[256];
+    }
+
+    public int getSearchBound() {
+        return this.searchBound;
+    }
+
+    public Neighborhood getNeighborhood() {
+        return this.neighborhood;
+    }
+
+    public DiscoveredIndex getDiscovered() {
+        return this.discovered;
     }
 
     /**
      * @return 是否已经探索过
      */
-    public boolean isDiscovered(Location target) {
-        return !this.discovered.contains(target);
+    public boolean isDiscovered(Block target) {
+        return this.discovered.contains(target.getWorld().getUID(), target.getX(), target.getY(), target.getZ());
     }
 
     /**
-     * @return 是否为合法方块（i.e. 该方块是否设定为应该进行全服通告）
+     * @param start  Start block.
+     * @param target The type of block you want to search for.
+     * @return The number of blocks of same type as {@code target} which are the neighbors of the block {@code start}.
      */
-    public boolean isLegalBlock(Location target, Material targetBlockType) {
-        return target.getBlock().getType() == targetBlockType;
+    public int count(Block start, Material target) {
+        World world = start.getWorld();
+        this.blockSource.reset(world);
+        return count(this.blockSource, world.getUID(), start.getX(), start.getY(), start.getZ(), target);
     }
 
     /**
-     * @param start  Start location.
-     * @param target The type of block you want to search for.
-     * @return The number of blocks of same type as {@code target} which are the neighbors of the block at location
-     * {@code start}.
+     * @param source  Where to read the block types from.
+     * @param world   The world to search in.
+     * @param startX  X of the start block.
+     * @param startY  Y of the start block.
+     * @param startZ  Z of the start block.
+     * @param target  The type of block you want to search for.
+     * @return The number of blocks of same type as {@code target} which are the neighbors of the start block.
      */
-    public int count(Location start, Material target) {
-        if (this.discovered == null)
-            return 0;
-
-        Queue<Location> queue = new LinkedList<>();
-        queue.add(start); // 添加 start_vertex 到 queue
-        this.discovered.add(start); // 标记 start_vertex 为已探索
+    public int count(BlockSource source, UUID world, int startX, int startY, int startZ, Material target) {
+        int head = 0;
+        int tail = 0;
+        this.queue[tail++] = DiscoveredIndex.blockKey(startX, startY, startZ); // 添加 start_vertex 到 queue
+        this.discovered.add(world, startX, startY, startZ); // 标记 start_vertex 为已探索
+        markVisited(0, 0, 0);
         int count = 0; // 数遍历了多少个 vertex
-        while (!queue.isEmpty()) {
-            Location v = queue.remove();
-            // 达到最大迭代数时，直接返回当前的方块数，不再进一步搜索
-            if (++count >= this.searchBound) return count;
-            // 遍历 vertex 的所有邻居（这里有 neighbor.length 个邻居）
-            // 邻居的标准可以根据情况随时修改，所以考虑加个 setting
-            for (BlockFace face : this.neighbors) {
-                Location neighbor = v.getBlock().getRelative(face).getLocation(); // get 邻居的坐标
-                if (isDiscovered(neighbor) && isLegalBlock(neighbor, target)) {
-                    // 这里 IF 需要满足：
+        try {
+            while (head != tail) {
+                long v = this.queue[head];
+                head = (head + 1) & (this.queue.length - 1);
+                // 达到最大迭代数时，直接返回当前的方块数，不再进一步搜索
+                if (++count >= this.searchBound) return count;
+                int vx = (int) (v >> 38);
+                int vy = (int) (v << 52 >> 52);
+                int vz = (int) (v << 26 >> 38);
+                // 遍历 vertex 的所有邻居（这里有 neighborhood.size() 个邻居）
+                for (int i = 0; i < this.offsetX.length; i++) {
+                    int nx = vx + this.offsetX[i];
+                    int ny = vy + this.offsetY[i];
+                    int nz = vz + this.offsetZ[i];
+                    // 这里需要满足：
                     // 1、邻居 v 没有被探索
                     // 2、邻居 v 是目标方块
-                    queue.add(neighbor); // 把邻居加进 queue
-                    this.discovered.add(neighbor); // 把邻居标记为已探索
+                    if (!markVisited(nx - startX, ny - startY, nz - startZ))
+                        continue;
+                    if (this.discovered.contains(world, nx, ny, nz) || source.getType(nx, ny, nz) != target)
+                        continue;
+                    this.queue[tail] = DiscoveredIndex.blockKey(nx, ny, nz); // 把邻居加进 queue
+                    tail = (tail + 1) & (this.queue.length - 1);
+                    if (tail == head) {
+                        growQueue(head);
+                        head = 0;
+                        tail = this.queue.length >> 1;
+                    }
+                    this.discovered.add(world, nx, ny, nz); // 把邻居标记为已探索
                 }
             }
+            return count;
+        } finally {
+            clearVisited();
         }
-        return count;
+    }
+
+    /**
+     * Doubles the capacity of the full queue, moving its elements to the beginning of the new buffer.
+     */
+    private void growQueue(int head) {
+        long[] old = this.queue;
+        long[] grown = new long[old.length << 1];
+        System.arraycopy(old, head, grown, 0, old.length - head);
+        System.arraycopy(old, 0, grown, old.length - head, head);
+        this.queue = grown;
+    }
+
+    /**
+     * Marks the block at given offset from the start block as visited.
+     *
+     * @return true if the block was not visited before, or is outside the bitset
+     */
+    private boolean markVisited(int dx, int dy, int dz) {
+        if (dx < -VISITED_RADIUS || dx > VISITED_RADIUS || dy < -VISITED_RADIUS || dy > VISITED_RADIUS || dz < -VISITED_RADIUS || dz > VISITED_RADIUS)
+            return true;
+        int bit = ((dx + VISITED_RADIUS) * VISITED_SIDE + dy + VISITED_RADIUS) * VISITED_SIDE + dz + VISITED_RADIUS;
+        int word = bit >> 6;
+        long mask = 1L << bit;
+        long value = this.visited[word];
+        if ((value & mask) != 0)
+            return false;
+        if (value == 0) {
+            if (this.touchedCount == this.touchedWords.length)
+                this.touchedWords = Arrays.copyOf(this.touchedWords, this.touchedCount << 1);
+            this.touchedWords[this.touchedCount++] = word;
+        }
+        this.visited[word] = value | mask;
+        return true;
+    }
+
+    private void clearVisited() {
+        for (int i = 0; i < this.touchedCount; i++)
+            this.visited[this.touchedWords[i]] = 0;
+        this.touchedCount = 0;
     }
 
 }
@@ -1,8 +1,7 @@
 package cc.mewcraft.mewutils.module.ore_announcer;
 
-import net.kyori.adventure.text.Component;
-import net.kyori.adventure.text.minimessage.tag.resolver.Placeholder;
-import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.BlockBreakEvent;
@@ -15,20 +14,24 @@ public class BlockListener implements Listener {
         this.module = module;
     }
 
-    @EventHandler
+    @EventHandler(ignoreCancelled = true)
     public void onBreak(BlockBreakEvent event) {
         if (!this.module.shouldAnnounce(event.getBlock()))
             return;
 
-        Component prefix = this.module.translations().of("found_ores.prefix").component();
-        Component message = prefix.append(this.module.translations().of("found_ores.found")
-                .resolver(Placeholder.component("player", event.getPlayer().displayName()))
-                .resolver(Placeholder.component("ore", Component.text(event.getBlock().getType().translationKey())))
-                .replace("count", this.module.getBlockCounter().count(event.getBlock().getLocation(), event.getBlock().getType()))
-                .component());
-        Bukkit.getServer()
-                .filterAudience(audience -> this.module.isSubscriber(event.getPlayer().getUniqueId()))
-                .sendMessage(message);
+        Player player = event.getPlayer();
+        Material type = event.getBlock().getType();
+        AsyncBlockCounter asyncBlockCounter = this.module.getAsyncBlockCounter();
+        if (asyncBlockCounter != null) {
+            asyncBlockCounter.count(event.getBlock(), count -> announce(player, type, count));
+        } else {
+            announce(player, type, this.module.getBlockCounter().count(event.getBlock(), type));
+        }
+    }
+
+    private void announce(Player player, Material type, int count) {
+        this.module.getStatistics().record(player.getUniqueId(), player.getName(), type, count);
+        this.module.getBroadcaster().submit(player, type, count);
     }
 
 }
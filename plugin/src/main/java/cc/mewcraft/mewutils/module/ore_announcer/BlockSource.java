@@ -0,0 +1,15 @@
+package cc.mewcraft.mewutils.module.ore_announcer;
+
+import org.bukkit.Material;
+
+/**
+ * Provides block types by absolute coordinates, without going through the {@link org.bukkit.block.Block} API.
+ */
+public interface BlockSource {
+
+    /**
+     * @return the type of the block at given coordinates, or {@link Material#AIR} if it is not available
+     */
+    Material getType(int x, int y, int z);
+
+}
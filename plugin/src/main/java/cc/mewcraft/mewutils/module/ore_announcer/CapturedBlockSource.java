@@ -0,0 +1,101 @@
+package cc.mewcraft.mewutils.module.ore_announcer;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import me.lucko.helper.Schedulers;
+import org.bukkit.Bukkit;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.World;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * A {@link BlockSource} over the {@link ChunkSnapshot}s around a block, so that it can be read off the main thread.
+ * <p>
+ * Only the chunk of the block is captured up front. A neighbour within the radius is captured the first time the
+ * search reads a block in it, by waiting for the main thread, so that a vein which stays in its chunk, as most do, costs
+ * a single snapshot. Blocks outside the radius, or in chunks which are not loaded, are reported as air.
+ */
+public class CapturedBlockSource implements BlockSource {
+
+    // how long the search waits for the main thread to capture a neighbour
+    private static final long CAPTURE_TIMEOUT_SECONDS = 5;
+
+    private final World world;
+    private final int centerX;
+    private final int centerZ;
+    private final int radius;
+    private final int minHeight;
+    private final int maxHeight;
+    // chunk key -> snapshot, null if the chunk was not loaded; only used by the thread reading the source
+    private final Long2ObjectOpenHashMap<@Nullable ChunkSnapshot> snapshots;
+
+    private CapturedBlockSource(World world, int centerX, int centerZ, int radius) {
+        this.world = world;
+        this.centerX = centerX;
+        this.centerZ = centerZ;
+        this.radius = radius;
+        this.minHeight = world.getMinHeight();
+        this.maxHeight = world.getMaxHeight();
+        this.snapshots = new Long2ObjectOpenHashMap<>();
+    }
+
+    /**
+     * Captures the chunk of the block. Must be called on the main thread.
+     *
+     * @param world  the world of the block
+     * @param blockX x of the block
+     * @param blockZ z of the block
+     * @param radius the radius in chunks of the neighbours which may be captured later
+     * @return a block source around the block
+     */
+    public static CapturedBlockSource capture(World world, int blockX, int blockZ, int radius) {
+        CapturedBlockSource source = new CapturedBlockSource(world, blockX >> 4, blockZ >> 4, radius);
+        source.snapshots.put(DiscoveredIndex.chunkKey(source.centerX, source.centerZ), source.snapshot(source.centerX, source.centerZ));
+        return source;
+    }
+
+    @Override public Material getType(int x, int y, int z) {
+        if (y < this.minHeight || y >= this.maxHeight)
+            return Material.AIR;
+        int chunkX = x >> 4;
+        int chunkZ = z >> 4;
+        long key = DiscoveredIndex.chunkKey(chunkX, chunkZ);
+        ChunkSnapshot snapshot = this.snapshots.get(key);
+        if (snapshot == null && !this.snapshots.containsKey(key)) {
+            if (Math.abs(chunkX - this.centerX) > this.radius || Math.abs(chunkZ - this.centerZ) > this.radius)
+                return Material.AIR;
+            snapshot = captureNeighbour(chunkX, chunkZ);
+            this.snapshots.put(key, snapshot);
+        }
+        return snapshot != null ? snapshot.getBlockType(x & 15, y, z & 15) : Material.AIR;
+    }
+
+    /**
+     * @return the snapshot of the neighbour, taken on the main thread, or null if it is not loaded or the main thread
+     * did not answer in time
+     */
+    private @Nullable ChunkSnapshot captureNeighbour(int chunkX, int chunkZ) {
+        if (Bukkit.isPrimaryThread())
+            return snapshot(chunkX, chunkZ);
+        try {
+            return Schedulers.sync().supply(() -> snapshot(chunkX, chunkZ)).get(CAPTURE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | TimeoutException e) {
+            return null;
+        }
+    }
+
+    private @Nullable ChunkSnapshot snapshot(int chunkX, int chunkZ) {
+        return this.world.isChunkLoaded(chunkX, chunkZ)
+                ? this.world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(false, false, false)
+                : null;
+    }
+
+}
@@ -0,0 +1,23 @@
+package cc.mewcraft.mewutils.module.ore_announcer;
+
+import org.bukkit.Chunk;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkUnloadEvent;
+
+public class ChunkListener implements Listener {
+
+    private final OreAnnouncerModule module;
+
+    public ChunkListener(final OreAnnouncerModule module) {
+        this.module = module;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        Chunk chunk = event.getChunk();
+        this.module.getBlockCounter().getDiscovered().evictChunk(chunk.getWorld().getUID(), chunk.getX(), chunk.getZ());
+    }
+
+}
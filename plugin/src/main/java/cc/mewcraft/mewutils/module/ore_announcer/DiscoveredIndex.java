@@ -0,0 +1,190 @@
+package cc.mewcraft.mewutils.module.ore_announcer;
+
+import it.unimi.dsi.fastutil.Hash;
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Remembers the blocks which have already been counted, so that the same vein is not announced twice.
+ * <p>
+ * Block coordinates are packed into {@code long} keys and grouped by world and chunk. The entries of a chunk are
+ * dropped as a whole, either when the chunk unloads or when nothing new has been discovered in it for longer than
+ * the TTL.
+ * <p>
+ * All methods are synchronized, as veins may be counted off the main thread.
+ */
+public class DiscoveredIndex {
+
+    /**
+     * Rough size of one entry in the old {@code Set<Location>} backed by a {@code WeakHashMap}: the Location itself
+     * (48 bytes), the WeakHashMap.Entry (48 bytes) and the table slot (8 bytes).
+     */
+    private static final long LEGACY_BYTES_PER_ENTRY = 104;
+
+    private final Map<UUID, Long2ObjectOpenHashMap<ChunkEntry>> worlds;
+    private final long ttlMillis;
+    private @Nullable DiscoveryJournal journal;
+
+    /**
+     * @param ttlMillis how long the entries of a chunk are kept after its last discovery; non-positive to keep them
+     *                  until the chunk unloads
+     */
+    public DiscoveredIndex(long ttlMillis) {
+        this.worlds = new HashMap<>();
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Sets the journal which records every newly discovered block.
+     */
+    public synchronized void setJournal(@Nullable DiscoveryJournal journal) {
+        this.journal = journal;
+    }
+
+    public long getTtlMillis() {
+        return this.ttlMillis;
+    }
+
+    public static long blockKey(int x, int y, int z) {
+        return ((long) x & 0x3FFFFFF) << 38 | ((long) z & 0x3FFFFFF) << 12 | (long) y & 0xFFF;
+    }
+
+    public static long chunkKey(int chunkX, int chunkZ) {
+        return (long) chunkX & 0xFFFFFFFFL | ((long) chunkZ & 0xFFFFFFFFL) << 32;
+    }
+
+    /**
+     * @return true if the block at given coordinates is already discovered
+     */
+    public synchronized boolean contains(UUID world, int x, int y, int z) {
+        Long2ObjectOpenHashMap<ChunkEntry> chunks = this.worlds.get(world);
+        if (chunks == null)
+            return false;
+        ChunkEntry entry = chunks.get(chunkKey(x >> 4, z >> 4));
+        return entry != null && entry.blocks.contains(blockKey(x, y, z));
+    }
+
+    /**
+     * Marks the block at given coordinates as discovered.
+     *
+     * @return true if the block was not discovered before
+     */
+    public synchronized boolean add(UUID world, int x, int y, int z) {
+        long now = System.currentTimeMillis();
+        ChunkEntry entry = this.worlds
+                .computeIfAbsent(world, k -> new Long2ObjectOpenHashMap<>())
+                .computeIfAbsent(chunkKey(x >> 4, z >> 4), k -> new ChunkEntry());
+        entry.lastTouched = now;
+        if (!entry.blocks.add(blockKey(x, y, z)))
+            return false;
+        if (this.journal != null)
+            this.journal.append(world, blockKey(x, y, z), now);
+        return true;
+    }
+
+    /**
+     * Marks a block as discovered at given time, without recording it in the journal. Used to replay the journal.
+     */
+    public synchronized void restore(UUID world, long blockKey, long timestamp) {
+        int x = (int) (blockKey >> 38);
+        int z = (int) (blockKey << 26 >> 38);
+        ChunkEntry entry = this.worlds
+                .computeIfAbsent(world, k -> new Long2ObjectOpenHashMap<>())
+                .computeIfAbsent(chunkKey(x >> 4, z >> 4), k -> new ChunkEntry());
+        entry.lastTouched = Math.max(entry.lastTouched, timestamp);
+        entry.blocks.add(blockKey);
+    }
+
+    public synchronized void evictChunk(UUID world, int chunkX, int chunkZ) {
+        Long2ObjectOpenHashMap<ChunkEntry> chunks = this.worlds.get(world);
+        if (chunks != null && chunks.remove(chunkKey(chunkX, chunkZ)) != null && chunks.isEmpty())
+            this.worlds.remove(world);
+    }
+
+    public synchronized void evictWorld(UUID world) {
+        this.worlds.remove(world);
+    }
+
+    /**
+     * Removes all the chunks which have not been touched within the TTL.
+     *
+     * @param now the current time in milliseconds
+     * @return the number of chunks removed
+     */
+    public synchronized int expire(long now) {
+        if (this.ttlMillis <= 0)
+            return 0;
+        int removed = 0;
+        for (var worldIt = this.worlds.values().iterator(); worldIt.hasNext(); ) {
+            Long2ObjectOpenHashMap<ChunkEntry> chunks = worldIt.next();
+            for (ObjectIterator<Long2ObjectMap.Entry<ChunkEntry>> it = chunks.long2ObjectEntrySet().fastIterator(); it.hasNext(); ) {
+                if (now - it.next().getValue().lastTouched > this.ttlMillis) {
+                    it.remove();
+                    removed++;
+                }
+            }
+            if (chunks.isEmpty())
+                worldIt.remove();
+        }
+        return removed;
+    }
+
+    /**
+     * @return the number of discovered blocks
+     */
+    public synchronized long size() {
+        long size = 0;
+        for (Long2ObjectOpenHashMap<ChunkEntry> chunks : this.worlds.values())
+            for (ChunkEntry entry : chunks.values())
+                size += entry.blocks.size();
+        return size;
+    }
+
+    /**
+     * @return the number of chunks holding at least one discovered block
+     */
+    public synchronized int chunkCount() {
+        int count = 0;
+        for (Long2ObjectOpenHashMap<ChunkEntry> chunks : this.worlds.values())
+            count += chunks.size();
+        return count;
+    }
+
+    /**
+     * @return an estimate of the heap used by this index, in bytes
+     */
+    public synchronized long estimateBytes() {
+        long bytes = 0;
+        for (Long2ObjectOpenHashMap<ChunkEntry> chunks : this.worlds.values()) {
+            // keys + values + map object
+            bytes += (long) HashCommon.arraySize(chunks.size(), Hash.DEFAULT_LOAD_FACTOR) * 12 + 64;
+            for (ChunkEntry entry : chunks.values()) {
+                // key array + set object + entry object
+                bytes += (long) HashCommon.arraySize(entry.blocks.size(), Hash.DEFAULT_LOAD_FACTOR) * 8 + 64 + 24;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return an estimate of the heap the same entries would use in a {@code Set<Location>}, in bytes
+     */
+    public static long estimateLegacyBytes(long entries) {
+        return entries * LEGACY_BYTES_PER_ENTRY;
+    }
+
+    private static final class ChunkEntry {
+        private final LongOpenHashSet blocks = new LongOpenHashSet();
+        private long lastTouched;
+    }
+
+}
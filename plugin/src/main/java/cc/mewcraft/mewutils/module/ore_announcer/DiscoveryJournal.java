@@ -0,0 +1,262 @@
+package cc.mewcraft.mewutils.module.ore_announcer;
+
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import me.lucko.helper.terminable.Terminable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists the discovered blocks, so that veins are not announced again after a restart or reload.
+ * <p>
+ * New discoveries are buffered in memory and appended to a memory-mapped journal file off the main thread. When the
+ * journal grows past a threshold, and on every startup, it is merged with the previous snapshot into a new compacted
+ * snapshot, dropping duplicates and expired entries, so that replaying stays fast.
+ * <p>
+ * Both files are sequences of 32-byte records: world UUID (two longs), packed block key and discovery time. The
+ * snapshot starts with a header; the journal ends at the first record with a zero time, as mapping extends the file
+ * with zeros.
+ */
+public class DiscoveryJournal implements Terminable {
+
+    private static final int SNAPSHOT_MAGIC = 0x4D574F4A; // "MWOJ"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int SNAPSHOT_HEADER_BYTES = 16;
+    private static final int RECORD_BYTES = 32;
+    private static final int SEGMENT_BYTES = RECORD_BYTES * 32768; // 1 MiB
+    private static final int READ_WINDOW_BYTES = RECORD_BYTES * (1 << 23); // 256 MiB
+
+    private final OreAnnouncerModule module;
+    private final Path journalFile;
+    private final Path snapshotFile;
+    private final long ttlMillis;
+    private final long compactThreshold;
+
+    // records waiting to be written, guarded by itself
+    private LongArrayList pending;
+    private LongArrayList writing;
+
+    // guarded by this
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private long segmentStart;
+    private long journalRecords;
+
+    /**
+     * @param module           the module
+     * @param directory        the directory holding the files
+     * @param ttlMillis        entries older than this are dropped on compaction; non-positive to keep them forever
+     * @param compactThreshold the number of journal records which triggers a compaction
+     */
+    public DiscoveryJournal(OreAnnouncerModule module, Path directory, long ttlMillis, long compactThreshold) {
+        this.module = module;
+        this.journalFile = directory.resolve("discovered.journal");
+        this.snapshotFile = directory.resolve("discovered.snapshot");
+        this.ttlMillis = ttlMillis;
+        this.compactThreshold = compactThreshold;
+        this.pending = new LongArrayList();
+        this.writing = new LongArrayList();
+    }
+
+    /**
+     * Replays the snapshot and the journal into the index, compacts them, and starts recording.
+     * <p>
+     * Recorded blocks are written on {@link #flush()}, which the caller is expected to schedule.
+     *
+     * @param index the index to fill
+     * @return the number of entries replayed
+     */
+    public synchronized long replay(DiscoveredIndex index) throws IOException {
+        Files.createDirectories(this.journalFile.getParent());
+
+        long start = System.nanoTime();
+        Map<UUID, Long2LongOpenHashMap> entries = readAll();
+        long replayed = 0;
+        for (Map.Entry<UUID, Long2LongOpenHashMap> world : entries.entrySet()) {
+            for (Long2LongMap.Entry entry : world.getValue().long2LongEntrySet()) {
+                index.restore(world.getKey(), entry.getLongKey(), entry.getLongValue());
+                replayed++;
+            }
+        }
+        writeSnapshot(entries);
+        resetJournal();
+
+        this.module.info("Replayed " + replayed + " discovered blocks in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+        return replayed;
+    }
+
+    /**
+     * Queues a newly discovered block to be written. Can be called from any thread.
+     */
+    public void append(UUID world, long blockKey, long timestamp) {
+        synchronized (this.pending) {
+            this.pending.add(world.getMostSignificantBits());
+            this.pending.add(world.getLeastSignificantBits());
+            this.pending.add(blockKey);
+            this.pending.add(timestamp);
+        }
+    }
+
+    /**
+     * Writes all queued records to the journal, compacting it if it has grown too large.
+     */
+    public synchronized void flush() throws IOException {
+        if (this.channel == null)
+            return;
+
+        LongArrayList records;
+        synchronized (this.pending) {
+            records = this.pending;
+            this.pending = this.writing;
+            this.writing = records;
+        }
+        long[] elements = records.elements();
+        for (int i = 0; i < records.size(); i += 4) {
+            if (!this.segment.hasRemaining())
+                mapSegment(this.segmentStart + SEGMENT_BYTES);
+            this.segment.putLong(elements[i]);
+            this.segment.putLong(elements[i + 1]);
+            this.segment.putLong(elements[i + 2]);
+            this.segment.putLong(elements[i + 3]);
+            this.journalRecords++;
+        }
+        records.clear();
+
+        if (this.journalRecords >= this.compactThreshold) {
+            this.segment.force();
+            writeSnapshot(readAll());
+            resetJournal();
+            this.module.debug("Compacted the discovered block journal");
+        }
+    }
+
+    /**
+     * Same as {@link #flush()}, but logs the error instead. Meant to be scheduled off the main thread.
+     */
+    public void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            this.module.error("Failed to write the discovered block journal: " + e.getMessage());
+        }
+    }
+
+    @Override public synchronized void close() throws IOException {
+        flush();
+        if (this.channel != null) {
+            this.segment.force();
+            this.channel.close();
+            this.channel = null;
+        }
+    }
+
+    // --- files ---
+
+    /**
+     * Reads the snapshot and the journal, keeping the latest time of each block and dropping the expired ones.
+     */
+    private Map<UUID, Long2LongOpenHashMap> readAll() throws IOException {
+        Map<UUID, Long2LongOpenHashMap> entries = new HashMap<>();
+        long expireBefore = this.ttlMillis > 0 ? System.currentTimeMillis() - this.ttlMillis : Long.MIN_VALUE;
+        if (Files.exists(this.snapshotFile)) {
+            try (FileChannel in = FileChannel.open(this.snapshotFile, StandardOpenOption.READ)) {
+                MappedByteBuffer header = in.map(FileChannel.MapMode.READ_ONLY, 0, SNAPSHOT_HEADER_BYTES);
+                if (header.getInt() != SNAPSHOT_MAGIC || header.getInt() != SNAPSHOT_VERSION)
+                    throw new IOException("Not a discovered block snapshot: " + this.snapshotFile);
+                readRecords(in, SNAPSHOT_HEADER_BYTES, header.getLong(), entries, expireBefore);
+            }
+        }
+        if (Files.exists(this.journalFile)) {
+            try (FileChannel in = FileChannel.open(this.journalFile, StandardOpenOption.READ)) {
+                readRecords(in, 0, Long.MAX_VALUE, entries, expireBefore);
+            }
+        }
+        return entries;
+    }
+
+    private static void readRecords(FileChannel in, long position, long limit, Map<UUID, Long2LongOpenHashMap> entries, long expireBefore) throws IOException {
+        long size = in.size();
+        long read = 0;
+        while (position + RECORD_BYTES <= size && read < limit) {
+            long length = Math.min(READ_WINDOW_BYTES, (size - position) / RECORD_BYTES * RECORD_BYTES);
+            MappedByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, position, length);
+            while (buffer.hasRemaining() && read < limit) {
+                long most = buffer.getLong();
+                long least = buffer.getLong();
+                long blockKey = buffer.getLong();
+                long timestamp = buffer.getLong();
+                if (timestamp == 0)
+                    return; // end of journal
+                read++;
+                if (timestamp < expireBefore)
+                    continue;
+                Long2LongOpenHashMap world = entries.computeIfAbsent(new UUID(most, least), k -> new Long2LongOpenHashMap());
+                if (world.get(blockKey) < timestamp)
+                    world.put(blockKey, timestamp);
+            }
+            position += length;
+        }
+    }
+
+    private void writeSnapshot(Map<UUID, Long2LongOpenHashMap> entries) throws IOException {
+        long count = 0;
+        for (Long2LongOpenHashMap world : entries.values())
+            count += world.size();
+
+        Path temp = this.snapshotFile.resolveSibling(this.snapshotFile.getFileName() + ".tmp");
+        try (OutputStream file = Files.newOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(count);
+            for (Map.Entry<UUID, Long2LongOpenHashMap> world : entries.entrySet()) {
+                long most = world.getKey().getMostSignificantBits();
+                long least = world.getKey().getLeastSignificantBits();
+                for (Long2LongMap.Entry entry : world.getValue().long2LongEntrySet()) {
+                    out.writeLong(most);
+                    out.writeLong(least);
+                    out.writeLong(entry.getLongKey());
+                    out.writeLong(entry.getLongValue());
+                }
+            }
+        }
+        Files.move(temp, this.snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Starts a new, empty journal, as its content is in the snapshot now.
+     */
+    private void resetJournal() throws IOException {
+        if (this.channel != null) {
+            this.segment.force();
+            this.channel.close();
+            this.segment = null;
+        }
+        Files.deleteIfExists(this.journalFile);
+        this.channel = FileChannel.open(this.journalFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.journalRecords = 0;
+        mapSegment(0);
+    }
+
+    private void mapSegment(long start) throws IOException {
+        if (this.segment != null)
+            this.segment.force();
+        this.segment = this.channel.map(FileChannel.MapMode.READ_WRITE, start, SEGMENT_BYTES);
+        this.segmentStart = start;
+    }
+
+}
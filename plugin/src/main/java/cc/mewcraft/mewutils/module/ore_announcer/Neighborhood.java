@@ -0,0 +1,104 @@
+package cc.mewcraft.mewutils.module.ore_announcer;
+
+import org.bukkit.block.BlockFace;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.bukkit.block.BlockFace.*;
+
+/**
+ * The blocks which are considered neighbors of a block when searching a vein, precomputed as coordinate offsets.
+ */
+public enum Neighborhood {
+
+    /**
+     * Blocks sharing a face.
+     */
+    CONNECTED_6(1),
+    /**
+     * Blocks sharing a face or an edge.
+     */
+    CONNECTED_18(2),
+    /**
+     * Blocks sharing a face, an edge or a corner.
+     */
+    CONNECTED_26(3),
+    /**
+     * The neighbors used before this was configurable: the 6 faces, plus the 12 horizontal compass directions, some
+     * of which are two blocks away.
+     */
+    LEGACY(
+            NORTH,
+            EAST,
+            SOUTH,
+            WEST,
+            UP,
+            DOWN,
+            NORTH_EAST,
+            NORTH_WEST,
+            SOUTH_EAST,
+            SOUTH_WEST,
+            WEST_NORTH_WEST,
+            NORTH_NORTH_WEST,
+            NORTH_NORTH_EAST,
+            EAST_NORTH_EAST,
+            EAST_SOUTH_EAST,
+            SOUTH_SOUTH_EAST,
+            SOUTH_SOUTH_WEST,
+            WEST_SOUTH_WEST
+    );
+
+    private final int[] offsetX;
+    private final int[] offsetY;
+    private final int[] offsetZ;
+
+    /**
+     * @param maxNonZero the maximum number of non-zero components of an offset within the unit cube
+     */
+    Neighborhood(int maxNonZero) {
+        List<int[]> offsets = new ArrayList<>();
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dz = -1; dz <= 1; dz++) {
+                    int nonZero = Math.abs(dx) + Math.abs(dy) + Math.abs(dz);
+                    if (nonZero > 0 && nonZero <= maxNonZero)
+                        offsets.add(new int[]{dx, dy, dz});
+                }
+            }
+        }
+        this.offsetX = offsets.stream().mapToInt(o -> o[0]).toArray();
+        this.offsetY = offsets.stream().mapToInt(o -> o[1]).toArray();
+        this.offsetZ = offsets.stream().mapToInt(o -> o[2]).toArray();
+    }
+
+    Neighborhood(BlockFace... faces) {
+        this.offsetX = new int[faces.length];
+        this.offsetY = new int[faces.length];
+        this.offsetZ = new int[faces.length];
+        for (int i = 0; i < faces.length; i++) {
+            this.offsetX[i] = faces[i].getModX();
+            this.offsetY[i] = faces[i].getModY();
+            this.offsetZ[i] = faces[i].getModZ();
+        }
+    }
+
+    public int size() {
+        return this.offsetX.length;
+    }
+
+    // the arrays are shared, callers must not modify them
+
+    int[] offsetX() {
+        return this.offsetX;
+    }
+
+    int[] offsetY() {
+        return this.offsetY;
+    }
+
+    int[] offsetZ() {
+        return this.offsetZ;
+    }
+
+}
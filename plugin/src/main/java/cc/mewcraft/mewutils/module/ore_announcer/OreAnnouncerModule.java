@@ -2,34 +2,47 @@ package cc.mewcraft.mewutils.module.ore_announcer;
 
 import cc.mewcraft.mewutils.MewPlugin;
 import cc.mewcraft.mewutils.module.ModuleBase;
+import cloud.commandframework.arguments.standard.EnumArgument;
+import cloud.commandframework.arguments.standard.IntegerArgument;
 import com.google.inject.Inject;
-import me.lucko.helper.metadata.Metadata;
-import me.lucko.helper.metadata.MetadataKey;
+import me.lucko.helper.Schedulers;
 import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.block.Block;
+import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 import org.bukkit.event.Listener;
 
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.framework.qual.DefaultQualifier;
 
 @DefaultQualifier(NonNull.class)
 public class OreAnnouncerModule extends ModuleBase implements Listener {
 
-    public static final MetadataKey<Boolean> BROADCAST_TOGGLE_KEY = MetadataKey.createBooleanKey("subscribe.announcement.ore");
-
     private @MonotonicNonNull BlockCounter blockCounter;
+    private @Nullable AsyncBlockCounter asyncBlockCounter;
+    private @MonotonicNonNull OreBroadcaster broadcaster;
+    private @MonotonicNonNull SubscriberRegistry subscribers;
+    private @Nullable DiscoveryJournal journal;
+    private @MonotonicNonNull OreStatistics statistics;
     private @MonotonicNonNull Set<Material> enabledMaterials;
-    private @MonotonicNonNull Set<String> enabledWorlds;
+    private @MonotonicNonNull Set<String> enabledWorldNames;
+    // loaded worlds among the above, compared by identity; refreshed on world load and unload
+    private Set<World> enabledWorlds = Collections.newSetFromMap(new IdentityHashMap<>());
 
     @Inject
     public OreAnnouncerModule(MewPlugin plugin) {
@@ -38,19 +51,78 @@ public class OreAnnouncerModule extends ModuleBase implements Listener {
 
     @Override
     protected void load() throws Exception {
-        this.blockCounter = new BlockCounter(configNode().node("max_iterations").getInt());
-        this.enabledWorlds = new HashSet<>(configNode().node("worlds").getList(String.class, List.of()));
+        int maxIterations = configNode().node("max_iterations").getInt();
+        Neighborhood neighborhood = Neighborhood.valueOf(configNode().node("topology").getString("LEGACY").toUpperCase(Locale.ROOT));
+        DiscoveredIndex discovered = new DiscoveredIndex(TimeUnit.SECONDS.toMillis(configNode().node("discovered_ttl").getLong()));
+        this.blockCounter = new BlockCounter(maxIterations, neighborhood, discovered);
+        this.subscribers = new SubscriberRegistry(this, dataDirectory().resolve("unsubscribed.txt"));
+        this.subscribers.load(getParentPlugin().getServer().getOnlinePlayers());
+        this.enabledWorldNames = new HashSet<>(configNode().node("worlds").getList(String.class, List.of()));
         this.enabledMaterials = configNode().node("blocks")
                 .getList(String.class, List.of())
                 .stream()
                 .flatMap(name -> Stream.ofNullable(Material.matchMaterial(name)))
                 .collect(Collectors.toCollection(() -> EnumSet.noneOf(Material.class)));
+        this.statistics = new OreStatistics(this.enabledMaterials);
     }
 
     @Override
-    protected void enable() {
+    protected void enable() throws Exception {
+        // The journal holds a file channel and the async counter a thread, so they are created and bound only here
+        DiscoveredIndex discovered = this.blockCounter.getDiscovered();
+        this.journal = null;
+        this.asyncBlockCounter = null;
+        if (configNode().node("journal", "enabled").getBoolean()) {
+            this.journal = bind(new DiscoveryJournal(
+                    this,
+                    dataDirectory(),
+                    discovered.getTtlMillis(),
+                    configNode().node("journal", "compact_threshold").getLong(1_000_000)
+            ));
+            this.journal.replay(discovered);
+            discovered.setJournal(this.journal);
+            Schedulers.builder()
+                    .async()
+                    .after(1, TimeUnit.SECONDS)
+                    .every(1, TimeUnit.SECONDS)
+                    .run(this.journal::flushQuietly)
+                    .bindWith(this);
+        }
+        if (configNode().node("async", "enabled").getBoolean()) {
+            this.asyncBlockCounter = bind(new AsyncBlockCounter(
+                    this,
+                    new BlockCounter(this.blockCounter.getSearchBound(), this.blockCounter.getNeighborhood(), discovered),
+                    configNode().node("async", "snapshot_radius").getInt(1),
+                    configNode().node("async", "queue_capacity").getInt(64)
+            ));
+        }
+        this.broadcaster = bind(new OreBroadcaster(
+                this,
+                Math.max(1, configNode().node("broadcast", "window").getInt(40)),
+                configNode().node("broadcast", "max_per_recipient").getInt(5)
+        ));
+
+        refreshEnabledWorlds();
+
         // register listener
         registerListenerAndBind(new BlockListener(this));
+        registerListenerAndBind(new WorldListener(this));
+        registerListenerAndBind(this.subscribers);
+        // Evicted blocks would only come back from the journal on the next restart, so they could be announced again
+        if (configNode().node("evict_on_chunk_unload").getBoolean(true)) {
+            if (this.journal == null)
+                registerListenerAndBind(new ChunkListener(this));
+            else
+                info("evict_on_chunk_unload is ignored while the journal is enabled");
+        }
+
+        // expire discovered blocks
+        Schedulers.builder()
+                .sync()
+                .after(1, TimeUnit.MINUTES)
+                .every(1, TimeUnit.MINUTES)
+                .run(this::expireDiscovered)
+                .bindWith(this);
 
         // register command
         registerCommand(registry -> registry
@@ -60,31 +132,106 @@ public class OreAnnouncerModule extends ModuleBase implements Listener {
                 .senderType(Player.class)
                 .handler(commandContext -> {
                     Player player = (Player) commandContext.getSender();
-                    if (isSubscriber(player.getUniqueId())) {
-                        toggleSubscription(player.getUniqueId());
-                        translations().of("toggle_broadcast_off").send(player);
-                    } else {
-                        toggleSubscription(player.getUniqueId());
+                    if (this.subscribers.toggle(player)) {
                         translations().of("toggle_broadcast_on").send(player);
+                    } else {
+                        translations().of("toggle_broadcast_off").send(player);
+                    }
+                })
+        );
+        registerCommand(registry -> registry
+                .commandBuilder("mewutils")
+                .permission("mew.admin")
+                .literal("orestats")
+                .argument(EnumArgument.optional(OreStatistics.Window.class, "window", OreStatistics.Window.TEN_MINUTES))
+                .argument(IntegerArgument.optional("limit", 10))
+                .handler(commandContext -> {
+                    CommandSender sender = commandContext.getSender();
+                    OreStatistics.Window window = commandContext.get("window");
+                    int limit = commandContext.get("limit");
+                    List<OreStatistics.Entry> top = this.statistics.top(window, null, limit);
+                    translations().of("stats.header")
+                            .replace("window", window.minutes())
+                            .send(sender);
+                    for (int i = 0; i < top.size(); i++) {
+                        OreStatistics.Entry entry = top.get(i);
+                        translations().of("stats.entry")
+                                .replace("rank", i + 1)
+                                .replace("player", entry.name())
+                                .replace("veins", entry.veins())
+                                .replace("ores", entry.ores())
+                                .replace("rate", String.format("%.1f", (double) entry.ores() / window.minutes()))
+                                .send(sender);
                     }
                 })
         );
     }
 
+    private void expireDiscovered() {
+        this.statistics.prune();
+
+        DiscoveredIndex discovered = this.blockCounter.getDiscovered();
+        long before = discovered.estimateBytes();
+        int expired = discovered.expire(System.currentTimeMillis());
+        long size = discovered.size();
+        if (this.asyncBlockCounter != null)
+            debug("Async vein counting: " + this.asyncBlockCounter.getCoalescedCount() + " coalesced, " + this.asyncBlockCounter.getDroppedCount() + " dropped");
+        debug("Broadcast: " + this.broadcaster.getDroppedMessages() + " messages dropped by the per-recipient limit");
+        debug("Expired " + expired + " chunks from discovered index; "
+              + size + " blocks in " + discovered.chunkCount() + " chunks, "
+              + "~" + (before >> 10) + " KiB -> ~" + (discovered.estimateBytes() >> 10) + " KiB "
+              + "(Set<Location> would be ~" + (DiscoveredIndex.estimateLegacyBytes(size) >> 10) + " KiB)");
+    }
+
     public BlockCounter getBlockCounter() {
         return this.blockCounter;
     }
 
+    /**
+     * @return the counter running off the main thread, or null if veins should be counted synchronously
+     */
+    public @Nullable AsyncBlockCounter getAsyncBlockCounter() {
+        return this.asyncBlockCounter;
+    }
+
+    /**
+     * @return the journal of the discovered blocks, or null if it is disabled
+     */
+    public @Nullable DiscoveryJournal getJournal() {
+        return this.journal;
+    }
+
+    public OreBroadcaster getBroadcaster() {
+        return this.broadcaster;
+    }
+
+    public OreStatistics getStatistics() {
+        return this.statistics;
+    }
+
+    public SubscriberRegistry getSubscribers() {
+        return this.subscribers;
+    }
+
     public boolean isSubscriber(UUID player) {
-        return Metadata.provideForPlayer(player).getOrDefault(BROADCAST_TOGGLE_KEY, true);
+        return this.subscribers.isSubscriber(player);
     }
 
-    public void toggleSubscription(UUID player) {
-        Metadata.provideForPlayer(player).put(BROADCAST_TOGGLE_KEY, !isSubscriber(player));
+    public void refreshEnabledWorlds() {
+        Set<World> worlds = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (World world : getParentPlugin().getServer().getWorlds()) {
+            if (this.enabledWorldNames.contains(world.getName()))
+                worlds.add(world);
+        }
+        this.enabledWorlds = worlds;
     }
 
+    /**
+     * Checks whether breaking the block should be announced. Non-target blocks are rejected before anything is
+     * allocated, as this runs for every block broken on the server.
+     */
     public boolean shouldAnnounce(Block block) {
-        return this.enabledMaterials.contains(block.getType()) && this.enabledWorlds.contains(block.getWorld().getName()) && !this.blockCounter.isDiscovered(block.getLocation());
+        return this.enabledMaterials.contains(block.getType()) && this.enabledWorlds.contains(block.getWorld()) && !this.blockCounter.isDiscovered(block);
     }
 
 }
@@ -0,0 +1,104 @@
+package cc.mewcraft.mewutils.module.ore_announcer;
+
+import me.lucko.helper.Schedulers;
+import me.lucko.helper.terminable.Terminable;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.minimessage.tag.resolver.Placeholder;
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Collects the announcements of a short window and broadcasts them in batches.
+ * <p>
+ * Announcements of the same player and ore type within a window are merged into one message, which is rendered once
+ * and then sent to every subscriber. Each recipient receives at most a fixed number of messages per window, the rest
+ * are dropped. Everything here runs on the main thread.
+ */
+public class OreBroadcaster implements Terminable {
+
+    private final OreAnnouncerModule module;
+    private final int maxPerRecipient;
+    private final Component prefix;
+    private final Map<BatchKey, Batch> batches;
+    private final Terminable flushTask;
+
+    private long droppedMessages;
+
+    /**
+     * @param module          the module
+     * @param windowTicks     the length of a window, in ticks
+     * @param maxPerRecipient the maximum number of messages a recipient receives per window
+     */
+    public OreBroadcaster(OreAnnouncerModule module, int windowTicks, int maxPerRecipient) {
+        this.module = module;
+        this.maxPerRecipient = maxPerRecipient;
+        this.prefix = module.translations().of("found_ores.prefix").component();
+        this.batches = new LinkedHashMap<>();
+        this.flushTask = Schedulers.sync().runRepeating(this::flush, windowTicks, windowTicks);
+    }
+
+    /**
+     * Adds a vein found by the player to the current window.
+     */
+    public void submit(Player player, Material ore, int count) {
+        Batch batch = this.batches.computeIfAbsent(new BatchKey(player.getUniqueId(), ore), k -> new Batch(player.displayName()));
+        batch.veins++;
+        batch.ores += count;
+    }
+
+    public long getDroppedMessages() {
+        return this.droppedMessages;
+    }
+
+    private void flush() {
+        if (this.batches.isEmpty())
+            return;
+
+        List<Component> messages = new ArrayList<>(this.batches.size());
+        for (Map.Entry<BatchKey, Batch> entry : this.batches.entrySet()) {
+            BatchKey key = entry.getKey();
+            Batch batch = entry.getValue();
+            messages.add(this.prefix.append(this.module.translations().of(batch.veins > 1 ? "found_ores.found_batch" : "found_ores.found")
+                    .resolver(Placeholder.component("player", batch.displayName))
+                    .resolver(Placeholder.component("ore", Component.translatable(key.ore().translationKey())))
+                    .replace("veins", batch.veins)
+                    .replace("count", batch.ores)
+                    .component()));
+        }
+        this.batches.clear();
+
+        int limit = Math.min(messages.size(), this.maxPerRecipient);
+        for (Player recipient : this.module.getSubscribers().getOnlineSubscribers()) {
+            for (int i = 0; i < limit; i++)
+                recipient.sendMessage(messages.get(i));
+            this.droppedMessages += messages.size() - limit;
+        }
+        for (Component message : messages)
+            Bukkit.getConsoleSender().sendMessage(message);
+    }
+
+    @Override public void close() {
+        this.flushTask.closeSilently();
+        flush();
+    }
+
+    private record BatchKey(UUID player, Material ore) {}
+
+    private static final class Batch {
+        private final Component displayName;
+        private int veins;
+        private int ores;
+
+        private Batch(Component displayName) {
+            this.displayName = displayName;
+        }
+    }
+
+}
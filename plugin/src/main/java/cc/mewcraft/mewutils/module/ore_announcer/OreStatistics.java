@@ -0,0 +1,166 @@
+package cc.mewcraft.mewutils.module.ore_announcer;
+
+import org.bukkit.Material;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Aggregates the ores found by each player over sliding windows, for spotting suspicious mining rates.
+ * <p>
+ * Each player has a fixed ring of time buckets per ore type, so recording is O(1) and lock-free, and the memory does
+ * not grow with the number of events. Queries sum the buckets of the window.
+ */
+public class OreStatistics {
+
+    private static final long BUCKET_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    private static final int BUCKETS = 360; // one hour
+
+    public enum Window {
+        ONE_MINUTE(6),
+        TEN_MINUTES(60),
+        ONE_HOUR(360);
+
+        private final int buckets;
+
+        Window(int buckets) {
+            this.buckets = buckets;
+        }
+
+        public long minutes() {
+            return this.buckets * BUCKET_MILLIS / TimeUnit.MINUTES.toMillis(1);
+        }
+    }
+
+    /**
+     * The statistics of a player in a window.
+     *
+     * @param player the UUID of the player
+     * @param name   the name of the player when they last found an ore
+     * @param veins  the number of veins found
+     * @param ores   the number of ores in those veins
+     */
+    public record Entry(UUID player, String name, long veins, long ores) {}
+
+    // ore type -> index of its counters, the last index counts all ores; read-only after construction
+    private final Map<Material, Integer> oreIndexes;
+    private final Map<UUID, PlayerStats> players;
+
+    public OreStatistics(Set<Material> ores) {
+        this.oreIndexes = new EnumMap<>(Material.class);
+        for (Material ore : ores)
+            this.oreIndexes.put(ore, this.oreIndexes.size());
+        this.players = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Records a vein found by the player. Can be called from any thread.
+     */
+    public void record(UUID player, String name, Material ore, int count) {
+        long bucket = System.currentTimeMillis() / BUCKET_MILLIS;
+        PlayerStats stats = this.players.computeIfAbsent(player, k -> new PlayerStats(this.oreIndexes.size() + 1));
+        stats.name = name;
+        stats.lastBucket = bucket;
+        Integer index = this.oreIndexes.get(ore);
+        if (index != null) {
+            stats.veins[index].add(bucket, 1);
+            stats.ores[index].add(bucket, count);
+        }
+        stats.veins[this.oreIndexes.size()].add(bucket, 1);
+        stats.ores[this.oreIndexes.size()].add(bucket, count);
+    }
+
+    /**
+     * Returns the players who found the most ores in the window.
+     *
+     * @param window the window
+     * @param ore    the ore type, or null for all of them
+     * @param limit  the maximum number of players to return
+     * @return the players, the most ores first
+     */
+    public List<Entry> top(Window window, @Nullable Material ore, int limit) {
+        int index = ore == null ? this.oreIndexes.size() : this.oreIndexes.getOrDefault(ore, -1);
+        if (index < 0 || limit <= 0)
+            return List.of();
+
+        long bucket = System.currentTimeMillis() / BUCKET_MILLIS;
+        Comparator<Entry> byOres = Comparator.comparingLong(Entry::ores);
+        PriorityQueue<Entry> top = new PriorityQueue<>(limit + 1, byOres);
+        for (Map.Entry<UUID, PlayerStats> player : this.players.entrySet()) {
+            PlayerStats stats = player.getValue();
+            long ores = stats.ores[index].sum(bucket, window.buckets);
+            if (ores == 0)
+                continue;
+            top.add(new Entry(player.getKey(), stats.name, stats.veins[index].sum(bucket, window.buckets), ores));
+            if (top.size() > limit)
+                top.poll();
+        }
+        List<Entry> result = new ArrayList<>(top);
+        result.sort(byOres.reversed());
+        return result;
+    }
+
+    /**
+     * Forgets the players who have not found anything within the longest window.
+     */
+    public void prune() {
+        long bucket = System.currentTimeMillis() / BUCKET_MILLIS;
+        this.players.values().removeIf(stats -> bucket - stats.lastBucket >= BUCKETS);
+    }
+
+    private static final class PlayerStats {
+        private final BucketRing[] veins;
+        private final BucketRing[] ores;
+        private volatile String name;
+        private volatile long lastBucket;
+
+        private PlayerStats(int size) {
+            this.veins = new BucketRing[size];
+            this.ores = new BucketRing[size];
+            for (int i = 0; i < size; i++) {
+                this.veins[i] = new BucketRing();
+                this.ores[i] = new BucketRing();
+            }
+        }
+    }
+
+    /**
+     * A ring of counters, one per time bucket. Each slot packs the bucket number (high 32 bits) with the count (low 32
+     * bits), so a stale slot is reset and incremented in the same CAS.
+     */
+    private static final class BucketRing {
+        private final AtomicLongArray slots = new AtomicLongArray(BUCKETS);
+
+        private void add(long bucket, int delta) {
+            int i = (int) (bucket % BUCKETS);
+            long stamp = bucket << 32;
+            long prev, next;
+            do {
+                prev = this.slots.get(i);
+                next = (prev & 0xFFFFFFFF00000000L) == stamp ? prev + delta : stamp | delta;
+            } while (!this.slots.compareAndSet(i, prev, next));
+        }
+
+        private long sum(long bucket, int buckets) {
+            long sum = 0;
+            for (long b = bucket - buckets + 1; b <= bucket; b++) {
+                long slot = this.slots.get((int) (b % BUCKETS));
+                if (slot >>> 32 == (b & 0xFFFFFFFFL))
+                    sum += slot & 0xFFFFFFFFL;
+            }
+            return sum;
+        }
+    }
+
+}
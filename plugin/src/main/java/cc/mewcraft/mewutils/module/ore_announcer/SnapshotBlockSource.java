@@ -0,0 +1,63 @@
+package cc.mewcraft.mewutils.module.ore_announcer;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.World;
+
+/**
+ * A {@link BlockSource} reading from {@link ChunkSnapshot}s of a single world.
+ * <p>
+ * Snapshots are taken lazily the first time a chunk is read, so this must be used on the main thread. Chunks which
+ * are not loaded are never loaded by this source; blocks in them are reported as air.
+ */
+public class SnapshotBlockSource implements BlockSource {
+
+    private final Long2ObjectOpenHashMap<ChunkSnapshot> snapshots;
+    private World world;
+    private int minHeight;
+    private int maxHeight;
+
+    // the last snapshot read, as veins rarely cross chunk borders
+    private ChunkSnapshot last;
+    private long lastKey;
+
+    public SnapshotBlockSource() {
+        this.snapshots = new Long2ObjectOpenHashMap<>();
+    }
+
+    /**
+     * Prepares this source for a new search in given world, dropping all the snapshots taken so far.
+     */
+    public void reset(World world) {
+        this.world = world;
+        this.minHeight = world.getMinHeight();
+        this.maxHeight = world.getMaxHeight();
+        this.snapshots.clear();
+        this.last = null;
+    }
+
+    @Override public Material getType(int x, int y, int z) {
+        if (y < this.minHeight || y >= this.maxHeight)
+            return Material.AIR;
+        ChunkSnapshot snapshot = snapshot(x >> 4, z >> 4);
+        return snapshot != null ? snapshot.getBlockType(x & 15, y, z & 15) : Material.AIR;
+    }
+
+    private ChunkSnapshot snapshot(int chunkX, int chunkZ) {
+        long key = DiscoveredIndex.chunkKey(chunkX, chunkZ);
+        if (this.last != null && this.lastKey == key)
+            return this.last;
+        ChunkSnapshot snapshot = this.snapshots.get(key);
+        if (snapshot == null) {
+            if (!this.world.isChunkLoaded(chunkX, chunkZ))
+                return null;
+            snapshot = this.world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(false, false, false);
+            this.snapshots.put(key, snapshot);
+        }
+        this.last = snapshot;
+        this.lastKey = key;
+        return snapshot;
+    }
+
+}
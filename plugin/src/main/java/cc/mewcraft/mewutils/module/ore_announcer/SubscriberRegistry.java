@@ -0,0 +1,122 @@
+package cc.mewcraft.mewutils.module.ore_announcer;
+
+import me.lucko.helper.Schedulers;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of who receives the ore announcements.
+ * <p>
+ * Players are subscribed by default, so only the opt-outs are stored, one UUID per line in a file under the data
+ * directory. Alongside, the online subscribers are kept in their own set, so a broadcast iterates exactly its
+ * recipients.
+ */
+public class SubscriberRegistry implements Listener {
+
+    private final OreAnnouncerModule module;
+    private final Path file;
+    private final Set<UUID> optedOut;
+    private final Set<Player> onlineSubscribers;
+
+    public SubscriberRegistry(OreAnnouncerModule module, Path file) {
+        this.module = module;
+        this.file = file;
+        this.optedOut = ConcurrentHashMap.newKeySet();
+        this.onlineSubscribers = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Reads the opt-outs from the file and collects the online subscribers.
+     */
+    public void load(Collection<? extends Player> online) throws IOException {
+        if (Files.exists(this.file)) {
+            for (String line : Files.readAllLines(this.file)) {
+                if (line.isBlank())
+                    continue;
+                try {
+                    this.optedOut.add(UUID.fromString(line.trim()));
+                } catch (IllegalArgumentException e) {
+                    this.module.warn("Skipped an invalid UUID in " + this.file.getFileName() + ": " + line.trim());
+                }
+            }
+        }
+        for (Player player : online) {
+            if (isSubscriber(player.getUniqueId()))
+                this.onlineSubscribers.add(player);
+        }
+    }
+
+    /**
+     * Writes the opt-outs to the file.
+     */
+    public void save() throws IOException {
+        List<String> lines = this.optedOut.stream().map(UUID::toString).toList();
+        Files.createDirectories(this.file.getParent());
+        Path temp = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+        Files.write(temp, lines);
+        Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public boolean isSubscriber(UUID player) {
+        return !this.optedOut.contains(player);
+    }
+
+    /**
+     * @return the new state: true if the player is subscribed now
+     */
+    public boolean toggle(Player player) {
+        boolean subscribed;
+        if (this.optedOut.remove(player.getUniqueId())) {
+            this.onlineSubscribers.add(player);
+            subscribed = true;
+        } else {
+            this.optedOut.add(player.getUniqueId());
+            this.onlineSubscribers.remove(player);
+            subscribed = false;
+        }
+        Schedulers.async().run(this::saveQuietly);
+        return subscribed;
+    }
+
+    /**
+     * @return the online players who receive the announcements, as a read-only view
+     */
+    public Set<Player> getOnlineSubscribers() {
+        return Collections.unmodifiableSet(this.onlineSubscribers);
+    }
+
+    private synchronized void saveQuietly() {
+        try {
+            save();
+        } catch (IOException e) {
+            this.module.error("Failed to save the announcement subscribers: " + e.getMessage());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent event) {
+        if (isSubscriber(event.getPlayer().getUniqueId()))
+            this.onlineSubscribers.add(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        this.onlineSubscribers.remove(event.getPlayer());
+    }
+
+}
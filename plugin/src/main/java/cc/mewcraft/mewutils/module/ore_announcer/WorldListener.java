@@ -0,0 +1,32 @@
+package cc.mewcraft.mewutils.module.ore_announcer;
+
+import me.lucko.helper.Schedulers;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+public class WorldListener implements Listener {
+
+    private final OreAnnouncerModule module;
+
+    public WorldListener(final OreAnnouncerModule module) {
+        this.module = module;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldLoad(WorldLoadEvent event) {
+        this.module.refreshEnabledWorlds();
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        // the journal is only replayed on enable, so evicted blocks could be announced again once the world is back
+        if (this.module.getJournal() == null)
+            this.module.getBlockCounter().getDiscovered().evictWorld(event.getWorld().getUID());
+        // the world is still loaded at this point
+        Schedulers.sync().run(this.module::refreshEnabledWorlds);
+    }
+
+}
@@ -0,0 +1,62 @@
+package cc.mewcraft.mewutils.module.packet_filter;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+
+/**
+ * A thread-safe set of primitive ints.
+ * <p>
+ * The ints are spread over a fixed number of stripes, each one a fastutil set guarded by its own lock, so concurrent
+ * lookups from the Netty threads rarely contend and nothing is boxed.
+ */
+public class ConcurrentIntSet {
+
+    private static final int STRIPES = 16; // power of two
+
+    private final IntOpenHashSet[] stripes;
+
+    public ConcurrentIntSet() {
+        this.stripes = new IntOpenHashSet[STRIPES];
+        for (int i = 0; i < STRIPES; i++)
+            this.stripes[i] = new IntOpenHashSet();
+    }
+
+    private IntOpenHashSet stripe(int value) {
+        return this.stripes[HashCommon.mix(value) & (STRIPES - 1)];
+    }
+
+    public boolean add(int value) {
+        IntOpenHashSet stripe = stripe(value);
+        synchronized (stripe) {
+            return stripe.add(value);
+        }
+    }
+
+    public boolean remove(int value) {
+        IntOpenHashSet stripe = stripe(value);
+        synchronized (stripe) {
+            return stripe.remove(value);
+        }
+    }
+
+    public boolean contains(int value) {
+        IntOpenHashSet stripe = stripe(value);
+        synchronized (stripe) {
+            return stripe.contains(value);
+        }
+    }
+
+    /**
+     * @return the number of ints, which may be off by the concurrent changes
+     */
+    public int size() {
+        int size = 0;
+        for (IntOpenHashSet stripe : this.stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+}
@@ -20,19 +20,18 @@ public class EssentialsListener implements Listener {
         Players.all().stream()
                 .map(essentials::getUser)
                 .filter(User::isAfk)
-                .map(User::getUUID)
-                .forEach(user -> this.module.afkPlayers.add(user));
+                .map(User::getBase)
+                .forEach(player -> this.module.setAfk(player, true));
     }
 
     @EventHandler
     public void onAfkStatusChange(AfkStatusChangeEvent e) {
         if (e.getValue()) {
-            this.module.afkPlayers.add(e.getAffected().getBase().getUniqueId());
+            this.module.setAfk(e.getAffected().getBase(), true);
             // this.module.info("Added player " + e.getAffected().getName() + " to AFK list");
         } else {
-            this.module.afkPlayers.remove(e.getAffected().getBase().getUniqueId());
+            this.module.setAfk(e.getAffected().getBase(), false);
             // this.module.info("Removed player " + e.getAffected().getName() + " from AFK list");
-            // TODO resend nearby entity locations to the player
         }
     }
 
@@ -0,0 +1,205 @@
+package cc.mewcraft.mewutils.module.packet_filter;
+
+import io.papermc.paper.event.player.AsyncChatEvent;
+import me.lucko.helper.Schedulers;
+import me.lucko.helper.terminable.Terminable;
+import me.lucko.helper.utils.Players;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.player.PlayerCommandPreprocessEvent;
+import org.bukkit.event.player.PlayerInteractEntityEvent;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Detects AFK players from their input, without Essentials.
+ * <p>
+ * An input only writes the time of the player's last activity. Each active player sits in one slot of a timer wheel,
+ * at the second their timeout would expire if they did nothing more. Once per second, the wheel looks at the players
+ * of the current slot only: those who stayed idle become AFK, the others are moved to the slot of their new deadline.
+ * So the cost per second is the number of players due, not the number of players online.
+ */
+public class NativeAfkDetector implements Listener, Terminable {
+
+    private final PacketFilterModule module;
+    private final int timeoutSeconds;
+    private final double moveThresholdSquared;
+
+    private final Map<Player, Activity> activities;
+    // slot i holds the players whose deadline is a second s with (s & mask) == i; main thread only
+    private final List<Activity>[] wheel;
+    private final int mask;
+    // seconds since the detector started, written by the main thread only
+    private volatile int now;
+    private final Terminable ticker;
+
+    /**
+     * @param timeoutSeconds how long a player has to be idle to become AFK
+     * @param moveThreshold  how far a player has to move to count as active, in blocks
+     */
+    @SuppressWarnings("unchecked")
+    public NativeAfkDetector(final PacketFilterModule module, int timeoutSeconds, double moveThreshold) {
+        this.module = module;
+        this.timeoutSeconds = Math.max(1, timeoutSeconds);
+        this.moveThresholdSquared = moveThreshold * moveThreshold;
+        this.activities = new ConcurrentHashMap<>();
+
+        int slots = Integer.highestOneBit(this.timeoutSeconds) << 1;
+        this.wheel = new List[slots];
+        for (int i = 0; i < slots; i++)
+            this.wheel[i] = new ArrayList<>();
+        this.mask = slots - 1;
+
+        Players.all().forEach(this::track);
+        this.ticker = Schedulers.sync().runRepeating(this::advance, 20, 20);
+    }
+
+    private void track(Player player) {
+        Activity activity = new Activity(player);
+        activity.lastActive = this.now;
+        this.activities.put(player, activity);
+        schedule(activity);
+    }
+
+    private void schedule(Activity activity) {
+        this.wheel[(activity.lastActive + this.timeoutSeconds) & this.mask].add(activity);
+    }
+
+    /**
+     * Moves the wheel to the next second.
+     */
+    private void advance() {
+        int now = ++this.now;
+        List<Activity> slot = this.wheel[now & this.mask];
+        if (slot.isEmpty())
+            return;
+        Activity[] due = slot.toArray(new Activity[0]);
+        slot.clear();
+        for (Activity activity : due) {
+            if (activity.removed)
+                continue;
+            if (now - activity.lastActive >= this.timeoutSeconds) {
+                activity.afk = true;
+                this.module.setAfk(activity.player, true);
+            } else {
+                schedule(activity);
+            }
+        }
+    }
+
+    /**
+     * Records an input of the player. Can be called from any thread.
+     */
+    private void active(Player player) {
+        Activity activity = this.activities.get(player);
+        if (activity == null)
+            return;
+        activity.lastActive = this.now;
+        if (activity.afk) {
+            if (Bukkit.isPrimaryThread())
+                wake(activity);
+            else
+                Schedulers.sync().run(() -> wake(activity));
+        }
+    }
+
+    private void wake(Activity activity) {
+        if (!activity.afk || activity.removed)
+            return;
+        activity.afk = false;
+        activity.lastActive = this.now;
+        schedule(activity);
+        this.module.setAfk(activity.player, false);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent event) {
+        track(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        Activity activity = this.activities.remove(event.getPlayer());
+        if (activity != null)
+            activity.removed = true; // dropped from the wheel when its slot comes
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onMove(PlayerMoveEvent event) {
+        Location to = event.getTo();
+        Activity activity = this.activities.get(event.getPlayer());
+        if (activity == null)
+            return;
+        Location from = event.getFrom();
+        // looking around is an input, being pushed around is not
+        boolean turned = from.getYaw() != to.getYaw() || from.getPitch() != to.getPitch();
+        double dx = to.getX() - activity.anchorX, dy = to.getY() - activity.anchorY, dz = to.getZ() - activity.anchorZ;
+        if (turned || dx * dx + dy * dy + dz * dz >= this.moveThresholdSquared) {
+            activity.anchorX = to.getX();
+            activity.anchorY = to.getY();
+            activity.anchorZ = to.getZ();
+            active(event.getPlayer());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChat(AsyncChatEvent event) {
+        active(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onCommand(PlayerCommandPreprocessEvent event) {
+        active(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onInteract(PlayerInteractEvent event) {
+        active(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onInteractEntity(PlayerInteractEntityEvent event) {
+        active(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onInventoryClick(InventoryClickEvent event) {
+        if (event.getWhoClicked() instanceof Player player)
+            active(player);
+    }
+
+    @Override public void close() {
+        this.ticker.closeSilently();
+    }
+
+    private static final class Activity {
+        private final Player player;
+        // the second of the last input, written from any thread
+        private volatile int lastActive;
+        // written by the main thread only
+        private volatile boolean afk;
+        private boolean removed;
+        private double anchorX, anchorY, anchorZ;
+
+        private Activity(Player player) {
+            this.player = player;
+            Location location = player.getLocation();
+            this.anchorX = location.getX();
+            this.anchorY = location.getY();
+            this.anchorZ = location.getZ();
+        }
+    }
+
+}
@@ -0,0 +1,241 @@
+package cc.mewcraft.mewutils.module.packet_filter;
+
+import com.comphenix.protocol.PacketType;
+import com.comphenix.protocol.events.PacketContainer;
+import com.comphenix.protocol.reflect.FuzzyReflection;
+import com.comphenix.protocol.utility.MinecraftFields;
+import com.comphenix.protocol.utility.MinecraftReflection;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import me.lucko.helper.terminable.Terminable;
+import me.lucko.helper.utils.Players;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Blocks packets in each player's Netty pipeline, before they are encoded.
+ * <p>
+ * Unlike {@link ProtocolLibHook}, the packets are not wrapped in a {@code PacketContainer}: the handler of a player
+ * holds their {@link PlayerContext}, and looks the packet class up in a table built once for all the packet types,
+ * which leads to the decision of the current {@link PacketRules}, so reloading the rules does not touch the pipelines.
+ * ProtocolLib is only used to find the channel and the packet classes.
+ */
+public class NettyHook implements Terminable, Listener {
+
+    private static final String HANDLER_NAME = "mewutils_packet_filter";
+    // the handler which turns packets into game events, the last one of the pipeline
+    private static final String PACKET_HANDLER_NAME = "packet_handler";
+
+    private final PacketFilterModule module;
+    private final Field channelField;
+
+    // packet class -> its type, read-only after construction
+    private final Map<Class<?>, PacketClass> packetClasses;
+
+    /**
+     * @throws ReflectiveOperationException if the channel or the packet classes can't be found on this server
+     */
+    public NettyHook(final PacketFilterModule module) throws ReflectiveOperationException {
+        this.module = module;
+
+        Class<?> networkManagerClass = MinecraftReflection.getNetworkManagerClass();
+        this.channelField = FuzzyReflection.fromClass(networkManagerClass, true).getFieldByType("channel", Channel.class);
+        this.channelField.setAccessible(true);
+
+        Map<Class<?>, PacketClass> packetClasses = new HashMap<>();
+        for (PacketType type : PacketRules.outgoingPlayTypes()) {
+            Class<?> packetClass = type.getPacketClass();
+            if (packetClass == null)
+                continue;
+            MethodHandle entityId = null;
+            if (ProtocolLibHook.ENTITY_PACKETS.contains(type)) {
+                try {
+                    entityId = entityIdGetter(packetClass);
+                } catch (ReflectiveOperationException | RuntimeException e) {
+                    // only this type loses the entity whitelist, as it does on ProtocolLib when its id can't be read
+                    module.warn("Failed to find the entity id of " + type.name() + ": " + e);
+                }
+            }
+            packetClasses.put(packetClass, new PacketClass(type, entityId));
+        }
+        this.packetClasses = Map.copyOf(packetClasses);
+
+        Players.all().forEach(this::inject);
+    }
+
+    @EventHandler
+    public void onJoin(PlayerJoinEvent event) {
+        inject(event.getPlayer());
+    }
+
+    private void inject(Player player) {
+        PlayerContext context = this.module.playerContexts.get(player);
+        Channel channel = channel(player);
+        if (context == null || channel == null)
+            return;
+        channel.eventLoop().execute(() -> {
+            if (channel.isOpen() && channel.pipeline().get(HANDLER_NAME) == null && channel.pipeline().get(PACKET_HANDLER_NAME) != null)
+                channel.pipeline().addBefore(PACKET_HANDLER_NAME, HANDLER_NAME, new PacketBlocker(context));
+        });
+    }
+
+    private void uninject(Player player) {
+        Channel channel = channel(player);
+        if (channel == null)
+            return;
+        channel.eventLoop().execute(() -> {
+            if (channel.pipeline().get(HANDLER_NAME) != null)
+                channel.pipeline().remove(HANDLER_NAME);
+        });
+    }
+
+    private @Nullable Channel channel(Player player) {
+        try {
+            return (Channel) this.channelField.get(MinecraftFields.getNetworkManager(player));
+        } catch (IllegalAccessException | RuntimeException e) {
+            this.module.warn("Failed to get the channel of " + player.getName() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return a getter of the entity id, which is the first instance int field of entity packets, as read by
+     * ProtocolLib's {@code getIntegers()}, or null if there is none
+     */
+    private static @Nullable MethodHandle entityIdGetter(Class<?> packetClass) throws ReflectiveOperationException {
+        // constants, such as the flags of ClientboundUpdateMobEffectPacket, may come first
+        Field entityId = FuzzyReflection.fromClass(packetClass, true).getFieldListByType(int.class).stream()
+                .filter(field -> !Modifier.isStatic(field.getModifiers()))
+                .findFirst()
+                .orElse(null);
+        if (entityId == null)
+            return null;
+        return MethodHandles.privateLookupIn(packetClass, MethodHandles.lookup())
+                .unreflectGetter(entityId)
+                .asType(MethodType.methodType(int.class, Object.class));
+    }
+
+    @Override public void close() {
+        Players.all().forEach(this::uninject);
+    }
+
+    /**
+     * @param type     the packet type
+     * @param entityId the getter of the entity id, if the packet relates to an entity
+     */
+    private record PacketClass(PacketType type, @Nullable MethodHandle entityId) {
+        /**
+         * @return the decision, without the entity id if it can't be read
+         */
+        private int decision(PacketRules rules) {
+            int decision = rules.decision(this.type);
+            return this.entityId != null ? decision : PacketRules.withoutEntityId(decision);
+        }
+
+        private int readEntityId(Object packet) throws Throwable {
+            return (int) Objects.requireNonNull(this.entityId).invokeExact(packet);
+        }
+    }
+
+    private final class PacketBlocker extends ChannelOutboundHandlerAdapter {
+        private final PlayerContext context;
+
+        private PacketBlocker(PlayerContext context) {
+            this.context = context;
+        }
+
+        @Override public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            PacketClass packetClass = NettyHook.this.packetClasses.get(msg.getClass());
+            if (packetClass != null && shouldCancel(packetClass, msg)) {
+                // nothing is written, but the sender should not wait for it
+                promise.trySuccess();
+                return;
+            }
+            super.write(ctx, msg, promise);
+        }
+
+        private boolean shouldCancel(PacketClass packetClass, Object msg) {
+            PacketFilterModule module = NettyHook.this.module;
+            PacketRules rules = module.rules;
+            int decision = packetClass.decision(rules);
+            if (decision == 0)
+                return false;
+            if (PacketRules.isBlocked(decision)) {
+                PacketStatistics.Counters counters = module.statistics.get(packetClass.type());
+                counters.recordSeen();
+                if (module.policy.isFiltered(this.context)) {
+                    if (shouldBlock(packetClass, decision, msg)) {
+                        counters.recordSuppressed();
+                        return true;
+                    }
+                    counters.recordWhitelisted();
+                }
+            }
+
+            // Keep the player within the budget of the packet category
+            int category = PacketRules.category(decision);
+            PacketShaper.Category shaperCategory = category >= 0 ? rules.getCategories().get(category) : null;
+            if (shaperCategory == null || module.shaper.tryAcquire(this.context, category, shaperCategory)) {
+                passed(packetClass, decision, msg);
+                return false;
+            }
+            if (PacketRules.hasEntityId(decision) && shaperCategory.action() == PacketShaper.Action.COALESCE) {
+                try {
+                    module.resyncTracker.record(this.context, packetClass.readEntityId(msg), PacketContainer.fromPacket(msg));
+                } catch (Throwable ignored) {
+                    // shed it then
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Tells the resync tracker about an entity packet reaching the player, which may make its records out of date.
+         */
+        private void passed(PacketClass packetClass, int decision, Object msg) {
+            if (!PacketRules.hasEntityId(decision) || !ResyncTracker.hasRecords(this.context) || !ResyncTracker.isTracked(packetClass.type()))
+                return;
+            ResyncTracker resyncTracker = NettyHook.this.module.resyncTracker;
+            try {
+                int entityId = packetClass.readEntityId(msg);
+                // the packet is only wrapped when there is something to forget
+                if (resyncTracker.isRecorded(this.context, entityId))
+                    resyncTracker.passed(this.context, entityId, PacketContainer.fromPacket(msg));
+            } catch (Throwable ignored) {
+                // nothing to forget then
+            }
+        }
+
+        private boolean shouldBlock(PacketClass packetClass, int decision, Object msg) {
+            PacketFilterModule module = NettyHook.this.module;
+            if (!PacketRules.hasEntityId(decision))
+                return module.policy.shouldCancel(this.context, decision, 0);
+            int entityId;
+            try {
+                entityId = packetClass.readEntityId(msg);
+            } catch (Throwable e) {
+                return module.policy.shouldCancel(this.context, PacketRules.withoutEntityId(decision), 0);
+            }
+            if (!module.policy.shouldCancel(this.context, decision, entityId))
+                return false;
+            module.resyncTracker.record(this.context, entityId, PacketContainer.fromPacket(msg));
+            return true;
+        }
+    }
+
+}
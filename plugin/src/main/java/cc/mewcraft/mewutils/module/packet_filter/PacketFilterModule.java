@@ -2,32 +2,122 @@ package cc.mewcraft.mewutils.module.packet_filter;
 
 import cc.mewcraft.mewutils.MewPlugin;
 import cc.mewcraft.mewutils.module.ModuleBase;
+import com.comphenix.protocol.PacketType;
+import com.comphenix.protocol.ProtocolLibrary;
+import com.destroystokyo.paper.event.entity.EntityRemoveFromWorldEvent;
 import com.google.inject.Inject;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import me.lucko.helper.Schedulers;
+import me.lucko.helper.utils.Players;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Entity;
 import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.spongepowered.configurate.ConfigurateException;
+import org.spongepowered.configurate.ConfigurationNode;
+import org.spongepowered.configurate.serialize.SerializationException;
 
-import java.util.Collections;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
 import java.util.EnumSet;
-import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 public class PacketFilterModule extends ModuleBase implements Listener {
 
     /**
-     * The UUIDs of the players who are afk-ing.
+     * The state of each online player, including whether they are afk-ing.
+     */
+    PlayerContexts playerContexts;
+    /**
+     * Where the packets are intercepted.
+     */
+    Backend backend;
+    /**
+     * The decision whether to block a packet, shared by the backends.
+     */
+    PacketFilterPolicy policy;
+    /**
+     * Catches the players up with the packets kept from them.
+     */
+    ResyncTracker resyncTracker;
+    /**
+     * The blocked and shaped packet types and the whitelisted entity types, compiled from the config. Replaced as a
+     * whole when the config file changes, and read by the packet listeners for each packet.
      */
-    Set<UUID> afkPlayers;
+    volatile PacketRules rules;
     /**
-     * Allowed entity packet types.
+     * How many packets of each blocked type are suppressed.
      */
-    EnumSet<EntityType> filteredEntityTypes;
+    PacketStatistics statistics;
     /**
-     * Names of the packet types to be blocked.
+     * Minutes between the summary logs, non-positive to disable them.
      */
-    Set<String> blockedPacketTypes; //
+    int statsLogInterval;
+    /**
+     * While thinning, the movements of the entities within this distance of an AFK player are all sent.
+     */
+    double thinRadius;
+    /**
+     * While thinning, the movements of the other entities are sent once per this many ticks.
+     */
+    int thinInterval;
+
+    /**
+     * Where the AFK state comes from.
+     */
+    AfkSource afkSource;
+    /**
+     * For the native detector, how long a player has to be idle to become AFK, in seconds.
+     */
+    int afkTimeout;
+    /**
+     * For the native detector, how far a player has to move to count as active, in blocks.
+     */
+    double afkMoveThreshold;
+
+    /**
+     * Limits the packets of each category a player receives.
+     */
+    PacketShaper shaper;
+    /**
+     * The number of shaper categories, each player has a bucket for each of them.
+     */
+    int shaperCategories;
+    /**
+     * How often the coalesced packets are sent, in ticks.
+     */
+    int shaperFlushInterval;
+
+    /**
+     * How often the config file is checked for changes of the rules, in seconds, non-positive to disable it.
+     */
+    int hotReloadInterval;
+
+    public enum AfkSource {
+        ESSENTIALS,
+        NATIVE,
+        /**
+         * Essentials if it is installed, native otherwise.
+         */
+        AUTO
+    }
+
+    public enum Backend {
+        PROTOCOLLIB,
+        NETTY
+    }
 
     @Inject
     public PacketFilterModule(final MewPlugin parent) {
@@ -35,33 +125,340 @@ public class PacketFilterModule extends ModuleBase implements Listener {
     }
 
     @Override protected void load() throws Exception {
+        // Read the config values of the shaper first, the player contexts hold its buckets
+        shaperCategories = shaperCategoryNodes(configNode()).size();
+        shaperFlushInterval = configNode().node("shaper", "flush_interval").getInt(5);
+
         // Initialize class fields
-        afkPlayers = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        playerContexts = new PlayerContexts(Players.all(), shaperCategories);
 
         // Read the config values:
 
-        filteredEntityTypes = EnumSet.noneOf(EntityType.class);
-        filteredEntityTypes.addAll(configNode().node("whitelistEntities").getList(String.class, List.of()).stream().map(EntityType::valueOf).toList());
-        filteredEntityTypes.stream().map(Enum::name).reduce((e1, e2) -> e1 + ", " + e2).ifPresentOrElse(
-                types -> info("Added whitelisted entity type: " + types),
-                () -> info("Added whitelisted entity type: <Empty>")
-        );
+        backend = Backend.valueOf(configNode().node("backend").getString("PROTOCOLLIB").toUpperCase(Locale.ROOT));
+        statsLogInterval = configNode().node("stats", "log_interval").getInt(10);
+        hotReloadInterval = configNode().node("hot_reload", "enabled").getBoolean(true)
+                ? configNode().node("hot_reload", "interval").getInt(2)
+                : 0;
+
+        PacketFilterPolicy.AfkMode afkMode = PacketFilterPolicy.AfkMode.valueOf(configNode().node("afk_mode").getString("BLOCK").toUpperCase(Locale.ROOT));
+        thinRadius = configNode().node("thin", "radius").getDouble(24);
+        thinInterval = configNode().node("thin", "interval").getInt(20);
+        policy = new PacketFilterPolicy(afkMode, thinInterval);
+
+        afkSource = AfkSource.valueOf(configNode().node("afk_source").getString("AUTO").toUpperCase(Locale.ROOT));
+        afkTimeout = configNode().node("native", "timeout").getInt(300);
+        afkMoveThreshold = configNode().node("native", "move_threshold").getDouble(1.5);
+    }
+
+    @Override protected void enable() throws Exception {
+        // ProtocolLib is only guaranteed to be present from here
+        resyncTracker = new ResyncTracker(this, ProtocolLibrary.getProtocolManager());
+        rules = compileRules(configNode());
+        statistics = new PacketStatistics(PacketRules.outgoingPlayTypes());
+        shaper = new PacketShaper(shaperCategories);
 
-        blockedPacketTypes = new HashSet<>();
-        blockedPacketTypes.addAll(configNode().node("blockedPackets").getList(String.class, List.of()));
-        blockedPacketTypes.stream().reduce((e1, e2) -> e1 + ", " + e2).ifPresentOrElse(
-                types -> info("Added blocked packet types: " + types),
-                () -> info("Added blocked packet types: <Empty>")
+        registerListenerAndBind(playerContexts);
+        registerListenerAndBind(this);
+
+        Schedulers.builder()
+                .async()
+                .after(1, TimeUnit.MINUTES)
+                .every(1, TimeUnit.MINUTES)
+                .run(() -> debug("Whitelisted entities: " + policy.whitelistSize()))
+                .bindWith(this);
+        if (policy.getAfkMode() == PacketFilterPolicy.AfkMode.THIN) {
+            Schedulers.sync()
+                    .runRepeating(this::publishNearbyEntities, thinInterval, thinInterval)
+                    .bindWith(this);
+        }
+        if (shaperCategories > 0) {
+            Schedulers.sync()
+                    .runRepeating(this::flushCoalesced, shaperFlushInterval, shaperFlushInterval)
+                    .bindWith(this);
+        }
+        if (hotReloadInterval > 0) {
+            RulesReloader reloader = new RulesReloader();
+            Schedulers.builder()
+                    .async()
+                    .after(hotReloadInterval, TimeUnit.SECONDS)
+                    .every(hotReloadInterval, TimeUnit.SECONDS)
+                    .run(reloader::poll)
+                    .bindWith(this);
+        }
+        if (statsLogInterval > 0) {
+            StatsLogger statsLogger = new StatsLogger();
+            Schedulers.builder()
+                    .async()
+                    .after(statsLogInterval, TimeUnit.MINUTES)
+                    .every(statsLogInterval, TimeUnit.MINUTES)
+                    .run(statsLogger::log)
+                    .bindWith(this);
+        }
+
+        registerCommand(registry -> registry
+                .commandBuilder("mewutils")
+                .permission("mew.admin")
+                .literal("packetstats")
+                .handler(commandContext -> {
+                    CommandSender sender = commandContext.getSender();
+                    double minutes = Math.max(1, System.currentTimeMillis() - statistics.getStartMillis()) / 60_000D;
+                    translations().of("stats.header")
+                            .replace("minutes", String.format("%.1f", minutes))
+                            .send(sender);
+                    for (PacketStatistics.Counters counters : statistics.all()) {
+                        if (counters.seen() == 0)
+                            continue;
+                        translations().of("stats.entry")
+                                .replace("type", counters.type().name())
+                                .replace("seen", counters.seen())
+                                .replace("suppressed", counters.suppressed())
+                                .replace("whitelisted", counters.whitelisted())
+                                .replace("rate", String.format("%.1f", counters.suppressed() / minutes))
+                                .replace("kib", String.format("%.1f", counters.bytesSaved() / 1024D))
+                                .send(sender);
+                    }
+                    List<PacketShaper.Category> categories = rules.getCategories();
+                    for (int i = 0; i < categories.size(); i++) {
+                        PacketShaper.Category category = categories.get(i);
+                        translations().of("stats.shaper")
+                                .replace("category", category.name())
+                                .replace("action", category.action().name())
+                                .replace("limited", shaper.getLimitedCount(i))
+                                .replace("rate", String.format("%.1f", shaper.getLimitedCount(i) / minutes))
+                                .send(sender);
+                    }
+                    translations().of("stats.footer")
+                            .replace("whitelist", policy.whitelistSize())
+                            .send(sender);
+                })
         );
     }
 
+    /**
+     * Tells the packet listeners which entities are near each AFK player, and catches the players up with the
+     * positions of the far entities.
+     */
+    private void publishNearbyEntities() {
+        for (Player player : Players.all()) {
+            PlayerContext context = playerContexts.get(player);
+            if (context == null || !context.isAfk())
+                continue;
+            IntOpenHashSet nearby = new IntOpenHashSet();
+            for (Entity entity : player.getNearbyEntities(thinRadius, thinRadius, thinRadius))
+                nearby.add(entity.getEntityId());
+            context.setNearbyEntities(nearby);
+            resyncTracker.flushPositions(player, context);
+        }
+    }
+
+    /**
+     * Sends the packets the shaper coalesced for the players who are not AFK. Those who are get them on return.
+     */
+    private void flushCoalesced() {
+        playerContexts.all().forEach((player, context) -> {
+            if (!context.isAfk())
+                resyncTracker.flushNow(player, context);
+        });
+    }
+
+    /**
+     * Logs the totals over each interval, as rates per minute.
+     */
+    private class StatsLogger {
+        private long lastSeen;
+        private long lastSuppressed;
+        private long lastBytes;
+
+        private void log() {
+            long seen = 0, suppressed = 0, bytes = 0;
+            for (PacketStatistics.Counters counters : statistics.all()) {
+                seen += counters.seen();
+                suppressed += counters.suppressed();
+                bytes += counters.bytesSaved();
+            }
+            info(String.format("Suppressed %.0f of %.0f packets/min (~%.1f KiB/min saved) over the last %d minutes",
+                    (double) (suppressed - lastSuppressed) / statsLogInterval,
+                    (double) (seen - lastSeen) / statsLogInterval,
+                    (bytes - lastBytes) / 1024D / statsLogInterval,
+                    statsLogInterval
+            ));
+            lastSeen = seen;
+            lastSuppressed = suppressed;
+            lastBytes = bytes;
+        }
+    }
+
+    /**
+     * Recompiles the rules when the config file is modified, and swaps them in on the main thread.
+     */
+    private class RulesReloader {
+        private final Path file = moduleDirectory().resolve("config.yml");
+        private @Nullable FileTime lastModified = lastModified();
+
+        private void poll() {
+            FileTime modified = lastModified();
+            if (modified == null || modified.equals(lastModified))
+                return;
+            lastModified = modified;
+            PacketRules current;
+            try {
+                current = compileRules(configLoader().load());
+            } catch (ConfigurateException | IllegalArgumentException e) {
+                warn("Failed to reload the rules, keeping the current ones: " + e.getMessage());
+                return;
+            }
+            Schedulers.sync().run(() -> applyRules(current));
+        }
+
+        private @Nullable FileTime lastModified() {
+            try {
+                return Files.getLastModifiedTime(file);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Publishes the new rules to the packet listeners. Must be called on the main thread.
+     */
+    private void applyRules(PacketRules current) {
+        if (current.getCategories().size() != shaper.getCategoryCount()) {
+            warn("The number of shaper categories changed, /mewutils reload to apply the new rules");
+            return;
+        }
+        // The listeners cover every type the rules may list, so they only need the new snapshot
+        rules = current;
+        info("Reloaded the rules");
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntityRemove(EntityRemoveFromWorldEvent event) {
+        policy.whitelistEntityIds.remove(event.getEntity().getEntityId());
+        resyncTracker.forget(event.getEntity().getEntityId());
+    }
+
+    /**
+     * @return the number of entities whose packets are never blocked
+     */
+    public int getWhitelistSize() {
+        return policy.whitelistSize();
+    }
+
     @Override protected void postEnable() {
-        registerListenerAndBind(new EssentialsListener(this));
-        new ProtocolLibHook(this).bindWith(this);
+        boolean essentials = afkSource == AfkSource.ESSENTIALS || afkSource == AfkSource.AUTO && isPluginPresent("Essentials");
+        if (essentials && isPluginPresent("Essentials")) {
+            registerListenerAndBind(new EssentialsListener(this));
+        } else {
+            if (essentials)
+                warn("Essentials is not installed, using the native AFK detection instead");
+            registerListenerAndBind(bind(new NativeAfkDetector(this, afkTimeout, afkMoveThreshold)));
+        }
+        boolean nettyBackend = false;
+        if (backend == Backend.NETTY) {
+            try {
+                registerListenerAndBind(bind(new NettyHook(this)));
+                nettyBackend = true;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                warn("Failed to set up the Netty backend, falling back to ProtocolLib: " + e);
+            }
+        }
+        // Listening to the types of the current rules only would mean replacing the listener on each reload
+        List<PacketType> listenedTypes = hotReloadInterval > 0 ? PacketRules.outgoingPlayTypes() : rules.getListenedTypes();
+        bind(new ProtocolLibHook(this, !nettyBackend, listenedTypes));
+    }
+
+    /**
+     * Compiles the rules from given config, reporting all the invalid names at once.
+     *
+     * @throws IllegalArgumentException if any name in the config is invalid
+     */
+    private PacketRules compileRules(ConfigurationNode config) throws SerializationException {
+        List<String> problems = new ArrayList<>();
+
+        EnumSet<EntityType> entityTypes = EnumSet.noneOf(EntityType.class);
+        for (String name : config.node("whitelistEntities").getList(String.class, List.of())) {
+            try {
+                entityTypes.add(EntityType.valueOf(name.toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                problems.add("whitelistEntities: unknown entity type " + name);
+            }
+        }
+
+        List<PacketType> blockedTypes = resolvePacketTypes("blockedPackets", config.node("blockedPackets").getList(String.class, List.of()), problems);
+
+        List<PacketShaper.Category> categories = new ArrayList<>();
+        for (ConfigurationNode node : shaperCategoryNodes(config)) {
+            String name = node.node("name").getString("category" + categories.size());
+            List<PacketType> packets = resolvePacketTypes("shaper category " + name, node.node("packets").getList(String.class, List.of()), problems);
+            int rate = Math.max(1, node.node("rate").getInt(100));
+            int burst = Math.min(PacketShaper.MAX_BURST, Math.max(1, node.node("burst").getInt(rate * 2)));
+            PacketShaper.Action action;
+            try {
+                action = PacketShaper.Action.valueOf(node.node("action").getString("SHED").toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                problems.add("shaper category " + name + ": unknown action " + node.node("action").getString());
+                continue;
+            }
+            categories.add(new PacketShaper.Category(name, Set.copyOf(packets), rate, burst, action));
+        }
+
+        if (!problems.isEmpty())
+            throw new IllegalArgumentException("Invalid packet filter config:\n- " + String.join("\n- ", problems));
+
+        info("Added whitelisted entity type: " + (entityTypes.isEmpty() ? "<Empty>" : entityTypes.stream().map(Enum::name).collect(Collectors.joining(", "))));
+        info("Added blocked packet types: " + (blockedTypes.isEmpty() ? "<Empty>" : blockedTypes.stream().map(PacketType::name).collect(Collectors.joining(", "))));
+        for (PacketShaper.Category category : categories)
+            info("Shaping " + category.name() + ": " + category.rate() + " packets/s, burst " + category.burst() + ", " + category.action());
+        return new PacketRules(blockedTypes, entityTypes, categories);
+    }
+
+    /**
+     * @param where    where the names are in the config, for the report
+     * @param names    the names of the packet types
+     * @param problems the report to add the unknown names to
+     * @return the outgoing play packet types of given names which exist on this server
+     */
+    private List<PacketType> resolvePacketTypes(String where, List<String> names, List<String> problems) {
+        List<PacketType> types = new ArrayList<>();
+        for (String name : names) {
+            List<PacketType> matches = PacketType.fromName(name).stream()
+                    .filter(type -> type.getProtocol() == PacketType.Protocol.PLAY && type.isServer())
+                    .toList();
+            if (matches.isEmpty()) {
+                problems.add(where + ": unknown packet type " + name);
+                continue;
+            }
+            for (PacketType type : matches) {
+                if (type.isSupported() && type.getCurrentId() >= 0)
+                    types.add(type);
+                else
+                    warn(where + ": packet type " + name + " is not supported on this server, skipping it");
+            }
+        }
+        return types;
+    }
+
+    private static List<? extends ConfigurationNode> shaperCategoryNodes(ConfigurationNode config) {
+        return config.node("shaper", "enabled").getBoolean(false)
+                ? config.node("shaper", "categories").childrenList()
+                : List.of();
+    }
+
+    /**
+     * Moves a player into or out of the AFK state. Must be called on the main thread.
+     */
+    void setAfk(Player player, boolean afk) {
+        PlayerContext context = playerContexts.get(player);
+        if (context == null || context.isAfk() == afk)
+            return;
+        context.setAfk(afk);
+        if (!afk)
+            resyncTracker.flush(player, context);
     }
 
     @Override public boolean checkRequirement() {
-        return isPluginPresent("Essentials") && isPluginPresent("ProtocolLib");
+        return isPluginPresent("ProtocolLib");
     }
 
 }
@@ -0,0 +1,120 @@
+package cc.mewcraft.mewutils.module.packet_filter;
+
+import com.comphenix.protocol.PacketType;
+import org.bukkit.Bukkit;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Decides whether an outgoing packet should be kept from a player, independent of the packet listener around it.
+ */
+class PacketFilterPolicy {
+
+    /**
+     * What to do with the blocked packets sent to AFK players.
+     */
+    enum AfkMode {
+        /**
+         * Block them all.
+         */
+        BLOCK,
+        /**
+         * Let the movements of the nearby entities through, and sample the movements of the others.
+         */
+        THIN
+    }
+
+    /**
+     * How a packet relates to the position of an entity.
+     */
+    enum Movement {
+        NONE,
+        /**
+         * A delta, which can't be dropped without the entity drifting on the client.
+         */
+        RELATIVE,
+        /**
+         * A new value, which replaces the previous one.
+         */
+        ABSOLUTE;
+
+        static Movement of(PacketType type) {
+            if (type == PacketType.Play.Server.REL_ENTITY_MOVE
+                || type == PacketType.Play.Server.REL_ENTITY_MOVE_LOOK)
+                return RELATIVE;
+            if (type == PacketType.Play.Server.ENTITY_TELEPORT
+                || type == PacketType.Play.Server.ENTITY_LOOK
+                || type == PacketType.Play.Server.ENTITY_HEAD_ROTATION
+                || type == PacketType.Play.Server.ENTITY_VELOCITY)
+                return ABSOLUTE;
+            return NONE;
+        }
+    }
+
+    // ids of entity whose packets should not be blocked, removed when the entity is removed from its world
+    final ConcurrentIntSet whitelistEntityIds;
+
+    private final AfkMode afkMode;
+    // in ticks, how often the movements of a far entity are let through while thinning
+    private final int thinInterval;
+
+    PacketFilterPolicy(AfkMode afkMode, int thinInterval) {
+        this.whitelistEntityIds = new ConcurrentIntSet();
+        this.afkMode = afkMode;
+        this.thinInterval = thinInterval;
+    }
+
+    AfkMode getAfkMode() {
+        return this.afkMode;
+    }
+
+    /**
+     * @param context the context of the receiver, or null if the receiver is not (or no longer) online
+     * @return true if packets of blocked types might be kept from the receiver
+     */
+    boolean isFiltered(@Nullable PlayerContext context) {
+        // Only block packets sent to AFK player
+        return context != null && context.isAfk();
+    }
+
+    /**
+     * Only called for receivers which are {@link #isFiltered(PlayerContext) filtered}, and blocked packet types.
+     *
+     * @param context  the context of the receiver
+     * @param decision the {@link PacketRules#decision(PacketType) decision} of the packet type
+     * @param entityId the id of the entity, if the packet {@link PacketRules#hasEntityId(int) has one}
+     * @return true if the packet should not be sent
+     */
+    boolean shouldCancel(PlayerContext context, int decision, int entityId) {
+        // Let the packet go through if the entity is whitelisted
+        if (PacketRules.isWhitelistable(decision) && this.whitelistEntityIds.contains(entityId))
+            return false;
+        Movement movement = PacketRules.movement(decision);
+        if (this.afkMode == AfkMode.BLOCK || movement == Movement.NONE || !PacketRules.hasEntityId(decision))
+            return true;
+
+        // Keep the nearby world correct
+        if (context.getNearbyEntities().contains(entityId))
+            return false;
+        // Drop the deltas of the far entities, their positions are sent as teleports every interval instead
+        if (movement == Movement.RELATIVE)
+            return true;
+        // Sample the absolute updates of the far entities
+        int tick = Bukkit.getCurrentTick();
+        synchronized (context.lastSentTicks) {
+            int last = context.lastSentTicks.getOrDefault(entityId, Integer.MIN_VALUE);
+            if (last != Integer.MIN_VALUE && tick - last < this.thinInterval)
+                return true;
+            context.lastSentTicks.put(entityId, tick);
+            return false;
+        }
+    }
+
+    /**
+     * @return the number of whitelisted entities
+     */
+    int whitelistSize() {
+        return this.whitelistEntityIds.size();
+    }
+
+}
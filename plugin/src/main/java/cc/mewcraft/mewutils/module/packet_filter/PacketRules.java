@@ -0,0 +1,178 @@
+package cc.mewcraft.mewutils.module.packet_filter;
+
+import com.comphenix.protocol.PacketType;
+import org.bukkit.entity.EntityType;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The packet filter configuration, compiled into a decision per outgoing play packet.
+ * <p>
+ * The decisions are ints in an array indexed by {@link PacketType#getCurrentId()}, so the packet listeners learn
+ * everything about a packet type with one array load: whether it is blocked, whether it carries an entity id, whether
+ * the entity whitelist applies, its {@link PacketFilterPolicy.Movement} and its {@link PacketShaper} category. An
+ * instance is immutable, and replaced as a whole when the config is reloaded.
+ */
+public final class PacketRules {
+
+    // --- decision bits ---
+    private static final int BLOCKED = 1;
+    private static final int ENTITY_ID = 1 << 1; // the first int field of the packet is an entity id
+    private static final int WHITELISTABLE = 1 << 2; // the entity whitelist applies
+    private static final int MOVEMENT_SHIFT = 4; // 2 bits, the ordinal of the movement
+    private static final int CATEGORY_SHIFT = 8; // the shaper category plus one, 0 if not shaped
+
+    private static final PacketFilterPolicy.Movement[] MOVEMENTS = PacketFilterPolicy.Movement.values();
+
+    private final int[] decisions;
+    private final List<PacketType> blockedTypes;
+    private final List<PacketType> listenedTypes;
+    private final Set<EntityType> whitelistedEntityTypes;
+    private final List<PacketShaper.Category> categories;
+
+    /**
+     * @param blockedTypes           the packet types blocked for AFK players
+     * @param whitelistedEntityTypes the entity types whose packets are never blocked
+     * @param categories             the categories of the packet shaper
+     * @throws IllegalArgumentException if a packet type is not an outgoing play packet of this server
+     */
+    public PacketRules(Collection<PacketType> blockedTypes, Set<EntityType> whitelistedEntityTypes, List<PacketShaper.Category> categories) {
+        Set<PacketType> listened = new LinkedHashSet<>(blockedTypes);
+        for (PacketShaper.Category category : categories)
+            listened.addAll(category.packets());
+
+        int size = 0;
+        for (PacketType type : listened) {
+            if (type.getProtocol() != PacketType.Protocol.PLAY || !type.isServer())
+                throw new IllegalArgumentException("Not an outgoing play packet: " + type);
+            if (type.getCurrentId() < 0)
+                throw new IllegalArgumentException("Not supported on this server: " + type);
+            size = Math.max(size, type.getCurrentId() + 1);
+        }
+
+        this.decisions = new int[size];
+        for (PacketType type : listened) {
+            int category = -1;
+            for (int i = 0; i < categories.size() && category < 0; i++) {
+                if (categories.get(i).packets().contains(type))
+                    category = i; // the first category of a type wins
+            }
+            boolean entityId = ProtocolLibHook.ENTITY_PACKETS.contains(type) && type != PacketType.Play.Server.ENTITY_DESTROY;
+            this.decisions[type.getCurrentId()] = encode(
+                    blockedTypes.contains(type),
+                    entityId,
+                    entityId && !whitelistedEntityTypes.isEmpty(),
+                    PacketFilterPolicy.Movement.of(type),
+                    category
+            );
+        }
+
+        this.blockedTypes = List.copyOf(new LinkedHashSet<>(blockedTypes));
+        this.listenedTypes = List.copyOf(listened);
+        this.whitelistedEntityTypes = whitelistedEntityTypes.isEmpty()
+                ? Collections.emptySet()
+                : Collections.unmodifiableSet(EnumSet.copyOf(whitelistedEntityTypes));
+        this.categories = List.copyOf(categories);
+    }
+
+    /**
+     * @return all the outgoing play packet types which exist on this server
+     */
+    public static List<PacketType> outgoingPlayTypes() {
+        return PacketType.Play.Server.getInstance().values().stream()
+                .filter(type -> type.isSupported() && type.getCurrentId() >= 0)
+                .toList();
+    }
+
+    /**
+     * @param blocked       whether the packet is blocked for AFK players
+     * @param entityId      whether the first int field of the packet is an entity id
+     * @param whitelistable whether the entity whitelist applies
+     * @param movement      how the packet relates to the position of the entity
+     * @param category      the index of the shaper category, or -1
+     * @return the decision
+     */
+    static int encode(boolean blocked, boolean entityId, boolean whitelistable, PacketFilterPolicy.Movement movement, int category) {
+        return (blocked ? BLOCKED : 0)
+               | (entityId ? ENTITY_ID : 0)
+               | (whitelistable ? WHITELISTABLE : 0)
+               | movement.ordinal() << MOVEMENT_SHIFT
+               | (category + 1) << CATEGORY_SHIFT;
+    }
+
+    /**
+     * @param type an outgoing play packet type
+     * @return the decision of given packet type, 0 if it is neither blocked nor shaped
+     */
+    public int decision(PacketType type) {
+        int id = type.getCurrentId();
+        return id >= 0 && id < this.decisions.length ? this.decisions[id] : 0;
+    }
+
+    public static boolean isBlocked(int decision) {
+        return (decision & BLOCKED) != 0;
+    }
+
+    /**
+     * @return true if the first int field of the packet is the id of the entity it relates to
+     */
+    public static boolean hasEntityId(int decision) {
+        return (decision & ENTITY_ID) != 0;
+    }
+
+    /**
+     * @return the decision for a packet whose entity id can't be read
+     */
+    public static int withoutEntityId(int decision) {
+        return decision & ~(ENTITY_ID | WHITELISTABLE);
+    }
+
+    /**
+     * @return true if the packet is let through when its entity is whitelisted
+     */
+    public static boolean isWhitelistable(int decision) {
+        return (decision & WHITELISTABLE) != 0;
+    }
+
+    public static PacketFilterPolicy.Movement movement(int decision) {
+        return MOVEMENTS[decision >>> MOVEMENT_SHIFT & 3];
+    }
+
+    /**
+     * @return the index of the shaper category, or -1 if the packet is not shaped
+     */
+    public static int category(int decision) {
+        return (decision >>> CATEGORY_SHIFT) - 1;
+    }
+
+    /**
+     * @return the packet types blocked for AFK players
+     */
+    public List<PacketType> getBlockedTypes() {
+        return this.blockedTypes;
+    }
+
+    /**
+     * @return the packet types which are either blocked or shaped
+     */
+    public List<PacketType> getListenedTypes() {
+        return this.listenedTypes;
+    }
+
+    public Set<EntityType> getWhitelistedEntityTypes() {
+        return this.whitelistedEntityTypes;
+    }
+
+    /**
+     * @return the categories of the packet shaper, in the order of their indexes
+     */
+    public List<PacketShaper.Category> getCategories() {
+        return this.categories;
+    }
+
+}
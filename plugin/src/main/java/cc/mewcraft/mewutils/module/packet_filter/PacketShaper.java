@@ -0,0 +1,97 @@
+package cc.mewcraft.mewutils.module.packet_filter;
+
+import com.comphenix.protocol.PacketType;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits how many packets of each category a player receives per second, with a token bucket per player and category.
+ * The categories themselves are part of the {@link PacketRules}, so they can be reloaded as long as their number stays.
+ * <p>
+ * A bucket is a single long in the player's {@link PlayerContext}, packing the time of its last refill (high 40 bits,
+ * in milliseconds) with its tokens (low 24 bits, in thousandths), so taking a token is one CAS on the Netty threads.
+ */
+public class PacketShaper {
+
+    private static final int TOKEN_BITS = 24;
+    private static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1;
+    private static final long MILLI = 1000; // thousandths of a token
+    /**
+     * The largest burst a bucket can hold.
+     */
+    public static final int MAX_BURST = (int) (TOKEN_MASK / MILLI);
+
+    /**
+     * What to do with the packets over budget.
+     */
+    public enum Action {
+        /**
+         * Drop them.
+         */
+        SHED,
+        /**
+         * Keep the final state of each entity, sent with the next flush.
+         */
+        COALESCE
+    }
+
+    /**
+     * @param name    the name of the category
+     * @param packets the packet types in the category
+     * @param rate    the tokens added per second
+     * @param burst   the tokens a bucket holds at most
+     * @param action  what to do with the packets over budget
+     */
+    public record Category(String name, Set<PacketType> packets, int rate, int burst, Action action) {}
+
+    private final LongAdder[] limited;
+    private final long startNanos;
+
+    /**
+     * @param categories the number of categories, which is fixed while the buckets exist
+     */
+    public PacketShaper(int categories) {
+        this.limited = new LongAdder[categories];
+        for (int i = 0; i < categories; i++)
+            this.limited[i] = new LongAdder();
+        this.startNanos = System.nanoTime();
+    }
+
+    public int getCategoryCount() {
+        return this.limited.length;
+    }
+
+    /**
+     * @return the number of packets of the category over budget, since enable
+     */
+    public long getLimitedCount(int index) {
+        return this.limited[index].sum();
+    }
+
+    /**
+     * Takes a token from the player's bucket of the category. Can be called from any thread.
+     *
+     * @param index    the index of the category
+     * @param category the category, whose rate and burst may change between calls
+     * @return true if the packet is within budget
+     */
+    public boolean tryAcquire(PlayerContext context, int index, Category category) {
+        AtomicLongArray buckets = context.shaperBuckets;
+        long now = (System.nanoTime() - this.startNanos) / 1_000_000 + 1; // never 0, which marks a new bucket
+        long capacity = category.burst() * MILLI;
+        while (true) {
+            long state = buckets.get(index);
+            long last = state >>> TOKEN_BITS;
+            long tokens = last == 0 ? capacity : Math.min(capacity, (state & TOKEN_MASK) + (now - last) * category.rate());
+            if (tokens < MILLI) {
+                this.limited[index].increment();
+                return false;
+            }
+            if (buckets.compareAndSet(index, state, now << TOKEN_BITS | tokens - MILLI))
+                return true;
+        }
+    }
+
+}
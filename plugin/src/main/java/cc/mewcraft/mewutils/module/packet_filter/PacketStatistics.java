@@ -0,0 +1,132 @@
+package cc.mewcraft.mewutils.module.packet_filter;
+
+import com.comphenix.protocol.PacketType;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Counts the packets of each blocked type which are seen, suppressed and let through by the whitelist, along with an
+ * estimate of the bytes saved.
+ * <p>
+ * The counters are {@link LongAdder}s, created once for every outgoing play packet type so that they survive reloads
+ * of the rules, and the Netty threads update them without contention or allocation. Only blocked types are counted.
+ */
+public class PacketStatistics {
+
+    /**
+     * A rough wire size of the packet types with no better estimate, in bytes.
+     */
+    private static final int DEFAULT_PACKET_BYTES = 24;
+
+    // indexed by the current id of the packet type, like the decisions of PacketRules; read-only after construction
+    private final Counters[] counters;
+    private final List<Counters> all;
+    private final long startMillis;
+
+    /**
+     * @param types outgoing play packet types
+     */
+    public PacketStatistics(Collection<PacketType> types) {
+        this.counters = new Counters[types.stream().mapToInt(PacketType::getCurrentId).max().orElse(-1) + 1];
+        List<Counters> all = new ArrayList<>();
+        for (PacketType type : types) {
+            Counters counters = new Counters(type, estimateBytes(type));
+            this.counters[type.getCurrentId()] = counters;
+            all.add(counters);
+        }
+        this.all = List.copyOf(all);
+        this.startMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the counters of given packet type, or null if the type is unknown
+     */
+    public @Nullable Counters get(PacketType type) {
+        int id = type.getCurrentId();
+        return id >= 0 && id < this.counters.length ? this.counters[id] : null;
+    }
+
+    /**
+     * @return the counters of all types, the most suppressed first
+     */
+    public List<Counters> all() {
+        List<Counters> all = new ArrayList<>(this.all);
+        all.sort(Comparator.comparingLong(Counters::suppressed).reversed());
+        return all;
+    }
+
+    public long getStartMillis() {
+        return this.startMillis;
+    }
+
+    /**
+     * Typical sizes of the frequent packets, including the length and id prefix.
+     */
+    private static int estimateBytes(PacketType type) {
+        if (type == PacketType.Play.Server.REL_ENTITY_MOVE) return 11;
+        if (type == PacketType.Play.Server.REL_ENTITY_MOVE_LOOK) return 13;
+        if (type == PacketType.Play.Server.ENTITY_LOOK) return 7;
+        if (type == PacketType.Play.Server.ENTITY_HEAD_ROTATION) return 6;
+        if (type == PacketType.Play.Server.ENTITY_VELOCITY) return 11;
+        if (type == PacketType.Play.Server.ENTITY_TELEPORT) return 37;
+        if (type == PacketType.Play.Server.ENTITY_STATUS) return 7;
+        if (type == PacketType.Play.Server.ANIMATION) return 7;
+        if (type == PacketType.Play.Server.UPDATE_TIME) return 18;
+        if (type == PacketType.Play.Server.BLOCK_ACTION) return 14;
+        if (type == PacketType.Play.Server.WORLD_PARTICLES) return 48;
+        if (type == PacketType.Play.Server.LIGHT_UPDATE) return 256;
+        return DEFAULT_PACKET_BYTES;
+    }
+
+    public static final class Counters {
+        private final PacketType type;
+        private final int estimatedBytes;
+        private final LongAdder seen = new LongAdder();
+        private final LongAdder suppressed = new LongAdder();
+        private final LongAdder whitelisted = new LongAdder();
+
+        private Counters(PacketType type, int estimatedBytes) {
+            this.type = type;
+            this.estimatedBytes = estimatedBytes;
+        }
+
+        public void recordSeen() {
+            this.seen.increment();
+        }
+
+        public void recordSuppressed() {
+            this.suppressed.increment();
+        }
+
+        public void recordWhitelisted() {
+            this.whitelisted.increment();
+        }
+
+        public PacketType type() {
+            return this.type;
+        }
+
+        public long seen() {
+            return this.seen.sum();
+        }
+
+        public long suppressed() {
+            return this.suppressed.sum();
+        }
+
+        public long whitelisted() {
+            return this.whitelisted.sum();
+        }
+
+        public long bytesSaved() {
+            return this.suppressed.sum() * this.estimatedBytes;
+        }
+    }
+
+}
@@ -0,0 +1,59 @@
+package cc.mewcraft.mewutils.module.packet_filter;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.ints.IntSets;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The state of an online player which is read by the packet listeners for each outgoing packet.
+ * <p>
+ * Written on the main thread, read on the Netty threads, hence the volatile fields.
+ */
+public class PlayerContext {
+
+    private volatile boolean afk;
+    // ids of the entities near the player, published by the main thread while thinning
+    private volatile IntSet nearbyEntities = IntSets.EMPTY_SET;
+
+    // the packets kept from the player while AFK
+    final ResyncTracker.ResyncState resync = new ResyncTracker.ResyncState();
+    // entity id -> the tick its last update was let through while thinning, guarded by itself
+    final Int2IntOpenHashMap lastSentTicks = new Int2IntOpenHashMap();
+    // the token bucket of each packet category, see PacketShaper
+    final AtomicLongArray shaperBuckets;
+
+    /**
+     * @param shaperCategories the number of packet categories shaped
+     */
+    public PlayerContext(int shaperCategories) {
+        this.shaperBuckets = new AtomicLongArray(shaperCategories);
+    }
+
+    public boolean isAfk() {
+        return this.afk;
+    }
+
+    public void setAfk(boolean afk) {
+        this.afk = afk;
+        if (!afk) {
+            this.nearbyEntities = IntSets.EMPTY_SET;
+            synchronized (this.lastSentTicks) {
+                this.lastSentTicks.clear();
+            }
+        }
+    }
+
+    public IntSet getNearbyEntities() {
+        return this.nearbyEntities;
+    }
+
+    /**
+     * @param nearbyEntities the ids of the entities near the player; not modified afterwards
+     */
+    public void setNearbyEntities(IntSet nearbyEntities) {
+        this.nearbyEntities = nearbyEntities;
+    }
+
+}
@@ -0,0 +1,75 @@
+package cc.mewcraft.mewutils.module.packet_filter;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Holds a {@link PlayerContext} for each online player.
+ * <p>
+ * The map is keyed by the player instance and copied on each join or quit, so that a lookup from the Netty threads
+ * is a lock-free identity hash lookup, with no UUID involved.
+ * <p>
+ * The ProtocolLib backend still does this lookup for every packet, as a {@code PacketEvent} only carries the player,
+ * and a Bukkit player has nowhere to keep plugin state but its metadata, which is a slower lookup by name. The Netty
+ * backend holds the context in the handler of the channel instead, so it is a field read there.
+ */
+public class PlayerContexts implements Listener {
+
+    // copy-on-write, guarded by this for writes
+    private volatile Map<Player, PlayerContext> contexts;
+    private final int shaperCategories;
+
+    /**
+     * @param shaperCategories the number of packet categories shaped
+     */
+    public PlayerContexts(Collection<? extends Player> online, int shaperCategories) {
+        this.shaperCategories = shaperCategories;
+        Map<Player, PlayerContext> contexts = new IdentityHashMap<>();
+        for (Player player : online)
+            contexts.put(player, new PlayerContext(shaperCategories));
+        this.contexts = contexts;
+    }
+
+    /**
+     * @return the contexts of all online players; not to be modified
+     */
+    public Map<Player, PlayerContext> all() {
+        return this.contexts;
+    }
+
+    /**
+     * @return the context of the player, or null if the player has not joined yet or has quit
+     */
+    public @Nullable PlayerContext get(Player player) {
+        return this.contexts.get(player);
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onJoin(PlayerJoinEvent event) {
+        synchronized (this) {
+            Map<Player, PlayerContext> contexts = new IdentityHashMap<>(this.contexts);
+            contexts.put(event.getPlayer(), new PlayerContext(this.shaperCategories));
+            this.contexts = contexts;
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        synchronized (this) {
+            Map<Player, PlayerContext> contexts = new IdentityHashMap<>(this.contexts);
+            contexts.remove(event.getPlayer());
+            this.contexts = contexts;
+        }
+    }
+
+}
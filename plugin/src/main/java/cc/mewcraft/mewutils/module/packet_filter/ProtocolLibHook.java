@@ -3,7 +3,6 @@ package cc.mewcraft.mewutils.module.packet_filter;
 import com.comphenix.protocol.PacketType;
 import com.comphenix.protocol.ProtocolLibrary;
 import com.comphenix.protocol.ProtocolManager;
-import com.comphenix.protocol.concurrency.PacketTypeSet;
 import com.comphenix.protocol.events.ListenerPriority;
 import com.comphenix.protocol.events.PacketAdapter;
 import com.comphenix.protocol.events.PacketContainer;
@@ -11,85 +10,56 @@ import com.comphenix.protocol.events.PacketEvent;
 import me.lucko.helper.terminable.Terminable;
 import org.bukkit.entity.EntityType;
 
-import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.List;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 public class ProtocolLibHook implements Terminable {
 
+    // packet types that relate to entity
+    static final List<PacketType> ENTITY_PACKETS = List.of(
+            PacketType.Play.Server.SPAWN_ENTITY,
+            PacketType.Play.Server.SPAWN_ENTITY_EXPERIENCE_ORB,
+            PacketType.Play.Server.NAMED_ENTITY_SPAWN,
+            PacketType.Play.Server.ENTITY_STATUS,
+            PacketType.Play.Server.REL_ENTITY_MOVE,
+            PacketType.Play.Server.REL_ENTITY_MOVE_LOOK,
+            PacketType.Play.Server.ENTITY_LOOK,
+            PacketType.Play.Server.ENTITY_DESTROY,
+            PacketType.Play.Server.REMOVE_ENTITY_EFFECT,
+            PacketType.Play.Server.ENTITY_HEAD_ROTATION,
+            PacketType.Play.Server.ENTITY_METADATA,
+            PacketType.Play.Server.ENTITY_VELOCITY,
+            PacketType.Play.Server.ENTITY_EQUIPMENT,
+            PacketType.Play.Server.ENTITY_SOUND,
+            PacketType.Play.Server.ENTITY_TELEPORT,
+            PacketType.Play.Server.ENTITY_EFFECT
+    );
+
     private final PacketFilterModule module;
     private final ProtocolManager protocolManager;
 
-    // packet listeners
-    private final PacketAdapter packetBlocker;
+    // packet listeners, registered once for the life of the module
+    private final @Nullable PacketAdapter packetBlocker;
+    // the whitelisted ids are removed on EntityRemoveFromWorldEvent, as ENTITY_DESTROY only means one viewer lost sight
     private final PacketAdapter entityLogger;
 
-    // packet types that relate to entity
-    private final PacketTypeSet entityPackets;
-
-    // ids of entity whose packets should not be blocked
-    private final Set<Integer> whitelistEntityIds;
+    // the decision whether to block a packet
+    private final PacketFilterPolicy policy;
 
-    public ProtocolLibHook(final PacketFilterModule module) {
+    /**
+     * @param blockPackets whether to block and shape the packets, false if another backend does
+     * @param listenedTypes the packet types to block and shape, a fixed set which covers the rules to come
+     */
+    public ProtocolLibHook(final PacketFilterModule module, final boolean blockPackets, final Collection<PacketType> listenedTypes) {
         this.module = module;
         this.protocolManager = ProtocolLibrary.getProtocolManager();
 
-        this.entityPackets = new PacketTypeSet();
-        this.entityPackets.addAll(Arrays.asList(
-                PacketType.Play.Server.SPAWN_ENTITY,
-                PacketType.Play.Server.SPAWN_ENTITY_EXPERIENCE_ORB,
-                PacketType.Play.Server.NAMED_ENTITY_SPAWN,
-                PacketType.Play.Server.ENTITY_STATUS,
-                PacketType.Play.Server.REL_ENTITY_MOVE,
-                PacketType.Play.Server.REL_ENTITY_MOVE_LOOK,
-                PacketType.Play.Server.ENTITY_LOOK,
-                PacketType.Play.Server.ENTITY_DESTROY,
-                PacketType.Play.Server.REMOVE_ENTITY_EFFECT,
-                PacketType.Play.Server.ENTITY_HEAD_ROTATION,
-                PacketType.Play.Server.ENTITY_METADATA,
-                PacketType.Play.Server.ENTITY_VELOCITY,
-                PacketType.Play.Server.ENTITY_EQUIPMENT,
-                PacketType.Play.Server.ENTITY_SOUND,
-                PacketType.Play.Server.ENTITY_TELEPORT,
-                PacketType.Play.Server.ENTITY_EFFECT
-        ));
-
-        this.whitelistEntityIds = Collections.newSetFromMap(new WeakHashMap<>());
+        this.policy = module.policy;
 
         //region Packet listeners
-        this.packetBlocker = new PacketAdapter(
-                module.getParentPlugin(),
-                ListenerPriority.HIGHEST,
-                module.blockedPacketTypes.stream().flatMap(name -> {
-                    Collection<PacketType> packetTypes = PacketType.fromName(name);
-                    if (packetTypes.isEmpty()) module.warn("Unknown packet type: " + name);
-                    return packetTypes.stream();
-                }).toList()
-        ) {
-            @Override
-            public void onPacketSending(PacketEvent event) {
-                // The method getUniqueId is not supported for temporary players
-                if (event.isPlayerTemporary()) {
-                    return;
-                }
-
-                // Let the packet go through if the entity is whitelisted
-                PacketContainer packet = event.getPacket();
-                if (ProtocolLibHook.this.entityPackets.contains(packet.getType())) {
-                    Integer entityId = packet.getIntegers().readSafely(0);
-                    if (entityId != null && ProtocolLibHook.this.whitelistEntityIds.contains(entityId)) {
-                        return;
-                    }
-                }
-
-                // Don't send this packet to AFK player
-                if (module.afkPlayers.contains(event.getPlayer().getUniqueId())) {
-                    event.setCancelled(true);
-                }
-            }
-        };
+        this.packetBlocker = blockPackets ? new PacketBlocker(module, listenedTypes) : null;
         this.entityLogger = new PacketAdapter(
                 module.getParentPlugin(),
                 ListenerPriority.MONITOR,
@@ -99,9 +69,9 @@ public class ProtocolLibHook implements Terminable {
             public void onPacketSending(PacketEvent event) {
                 PacketContainer packet = event.getPacket();
                 EntityType entityType = packet.getEntityTypeModifier().read(0);
-                if (module.filteredEntityTypes.contains(entityType)) {
+                if (module.rules.getWhitelistedEntityTypes().contains(entityType)) {
                     int entityId = packet.getIntegers().readSafely(0);
-                    ProtocolLibHook.this.whitelistEntityIds.add(entityId);
+                    ProtocolLibHook.this.policy.whitelistEntityIds.add(entityId);
                     // module.info("Add entity id " + entityId + " to whitelist");
                 }
             }
@@ -109,12 +79,101 @@ public class ProtocolLibHook implements Terminable {
         //endregion
 
         // register packet listeners
-        this.protocolManager.addPacketListener(this.packetBlocker);
+        if (this.packetBlocker != null)
+            this.protocolManager.addPacketListener(this.packetBlocker);
         this.protocolManager.addPacketListener(this.entityLogger);
     }
 
+    /**
+     * @return the id of the entity the packet relates to, or null if it does not have one
+     */
+    private static @Nullable Integer entityId(PacketContainer packet, int decision) {
+        return PacketRules.hasEntityId(decision) ? packet.getIntegers().readSafely(0) : null;
+    }
+
+    /**
+     * Blocks and shapes the packets of the listened types, as decided by the current rules, which pass the types they
+     * don't list.
+     */
+    static final class PacketBlocker extends PacketAdapter {
+
+        private final PacketFilterModule module;
+        private final PacketFilterPolicy policy;
+
+        PacketBlocker(PacketFilterModule module, Collection<PacketType> types) {
+            super(module.getParentPlugin(), ListenerPriority.HIGHEST, types);
+            this.module = module;
+            this.policy = module.policy;
+        }
+
+        @Override
+        public void onPacketSending(PacketEvent event) {
+            PacketFilterModule module = this.module;
+            PacketContainer packet = event.getPacket();
+            PacketType type = packet.getType();
+            PacketRules rules = module.rules;
+            int decision = rules.decision(type);
+            // Neither blocked nor shaped by the current rules
+            if (decision == 0) {
+                return;
+            }
+
+            // Temporary players have no context
+            if (event.isPlayerTemporary()) {
+                return;
+            }
+
+            // The event only carries the player, see PlayerContexts
+            PlayerContext context = module.playerContexts.get(event.getPlayer());
+            if (context == null) {
+                return;
+            }
+
+            if (PacketRules.isBlocked(decision)) {
+                PacketStatistics.Counters counters = module.statistics.get(type);
+                counters.recordSeen();
+                // Most packets go to players who are not AFK: a field read
+                if (this.policy.isFiltered(context)) {
+                    Integer entityId = entityId(packet, decision);
+                    if (this.policy.shouldCancel(context, entityId != null ? decision : PacketRules.withoutEntityId(decision), entityId != null ? entityId : 0)) {
+                        event.setCancelled(true);
+                        counters.recordSuppressed();
+                        if (entityId != null) {
+                            module.resyncTracker.record(context, entityId, packet);
+                        }
+                        return;
+                    }
+                    counters.recordWhitelisted();
+                }
+            }
+
+            // Keep the player within the budget of the packet category
+            int category = PacketRules.category(decision);
+            if (category >= 0 && !module.shaper.tryAcquire(context, category, rules.getCategories().get(category))) {
+                event.setCancelled(true);
+                if (rules.getCategories().get(category).action() == PacketShaper.Action.COALESCE) {
+                    Integer entityId = entityId(packet, decision);
+                    if (entityId != null) {
+                        module.resyncTracker.record(context, entityId, packet);
+                    }
+                }
+                return;
+            }
+
+            // The player gets newer values than those recorded for a later flush, if any: a volatile read
+            if (ResyncTracker.hasRecords(context) && ResyncTracker.isTracked(type)) {
+                Integer entityId = entityId(packet, decision);
+                if (entityId != null) {
+                    module.resyncTracker.passed(context, entityId, packet);
+                }
+            }
+        }
+
+    }
+
     @Override public void close() {
-        this.protocolManager.removePacketListener(this.packetBlocker);
+        if (this.packetBlocker != null)
+            this.protocolManager.removePacketListener(this.packetBlocker);
         this.protocolManager.removePacketListener(this.entityLogger);
     }
 
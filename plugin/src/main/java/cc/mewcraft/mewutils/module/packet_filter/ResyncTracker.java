@@ -0,0 +1,346 @@
+package cc.mewcraft.mewutils.module.packet_filter;
+
+import com.comphenix.protocol.PacketType;
+import com.comphenix.protocol.ProtocolManager;
+import com.comphenix.protocol.events.PacketContainer;
+import com.comphenix.protocol.wrappers.EnumWrappers;
+import com.comphenix.protocol.wrappers.Pair;
+import com.comphenix.protocol.wrappers.WrappedDataValue;
+import com.comphenix.protocol.wrappers.WrappedWatchableObject;
+import it.unimi.dsi.fastutil.ints.Int2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import me.lucko.helper.Schedulers;
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Brings a player up to date with the entities around them when they stop being AFK, or with the packets coalesced
+ * by the {@link PacketShaper}.
+ * <p>
+ * The entity packets kept from a player are recorded per entity, collapsed to the final state of each stream: whether
+ * the entity moved, its last head rotation, its metadata values by index and its equipment by slot. On flush, one
+ * packet per stream and entity is sent, in a single bundle where the server supports it. Positions are taken from the
+ * live entities, as relative moves can't be collapsed exactly. Transient packets, such as sounds and animations, are
+ * not replayed. An entity packet which reaches the player in the meantime drops the records it makes out of date, so
+ * the flush never sends older values than the player already has.
+ */
+public class ResyncTracker {
+
+    // packet types which carry state, the others are transient
+    private static final Set<PacketType> TRACKED_PACKETS = Set.of(
+            PacketType.Play.Server.REL_ENTITY_MOVE,
+            PacketType.Play.Server.REL_ENTITY_MOVE_LOOK,
+            PacketType.Play.Server.ENTITY_LOOK,
+            PacketType.Play.Server.ENTITY_TELEPORT,
+            PacketType.Play.Server.ENTITY_HEAD_ROTATION,
+            PacketType.Play.Server.ENTITY_METADATA,
+            PacketType.Play.Server.ENTITY_EQUIPMENT
+    );
+
+    private final PacketFilterModule module;
+    private final ProtocolManager protocolManager;
+
+    public ResyncTracker(PacketFilterModule module, ProtocolManager protocolManager) {
+        this.module = module;
+        this.protocolManager = protocolManager;
+    }
+
+    /**
+     * Records an entity packet which was kept from the player. Can be called from any thread.
+     */
+    public void record(PlayerContext context, int entityId, PacketContainer packet) {
+        PacketType type = packet.getType();
+        if (!TRACKED_PACKETS.contains(type))
+            return;
+        ResyncState state = context.resync;
+        synchronized (state) {
+            EntityState entity = state.entities.computeIfAbsent(entityId, k -> new EntityState());
+            state.recorded = true;
+            if (type == PacketType.Play.Server.REL_ENTITY_MOVE
+                || type == PacketType.Play.Server.REL_ENTITY_MOVE_LOOK
+                || type == PacketType.Play.Server.ENTITY_LOOK
+                || type == PacketType.Play.Server.ENTITY_TELEPORT) {
+                entity.moved = true;
+            } else if (type == PacketType.Play.Server.ENTITY_HEAD_ROTATION) {
+                entity.headRotation = packet;
+            } else if (type == PacketType.Play.Server.ENTITY_METADATA) {
+                List<WrappedDataValue> values = packet.getDataValueCollectionModifier().readSafely(0);
+                if (values != null) {
+                    // the packet only carries the changed values, so merge them
+                    if (entity.metadataValues == null)
+                        entity.metadataValues = new Int2ObjectLinkedOpenHashMap<>();
+                    for (WrappedDataValue value : values)
+                        entity.metadataValues.put(value.getIndex(), value);
+                } else {
+                    entity.metadata = packet; // before 1.19.3, the last one wins
+                }
+            } else if (type == PacketType.Play.Server.ENTITY_EQUIPMENT) {
+                List<Pair<EnumWrappers.ItemSlot, ItemStack>> slots = packet.getSlotStackPairLists().readSafely(0);
+                if (slots != null) {
+                    if (entity.equipment == null)
+                        entity.equipment = new EnumMap<>(EnumWrappers.ItemSlot.class);
+                    for (Pair<EnumWrappers.ItemSlot, ItemStack> slot : slots)
+                        entity.equipment.put(slot.getFirst(), slot.getSecond());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the packet type carries state which can be recorded
+     */
+    public static boolean isTracked(PacketType type) {
+        return TRACKED_PACKETS.contains(type);
+    }
+
+    /**
+     * @return true if any state is recorded for the player, without locking, so that the packets of the players with
+     * nothing recorded, which are most of them, skip the tracker. Can be called from any thread.
+     */
+    public static boolean hasRecords(PlayerContext context) {
+        return context.resync.recorded;
+    }
+
+    /**
+     * @return true if some state of the entity is recorded for the player. Can be called from any thread.
+     */
+    public boolean isRecorded(PlayerContext context, int entityId) {
+        synchronized (context.resync) {
+            return context.resync.entities.containsKey(entityId);
+        }
+    }
+
+    /**
+     * Forgets the recorded state which an entity packet reaching the player makes out of date, so that a flush never
+     * sends older values than the player already has. Can be called from any thread.
+     */
+    public void passed(PlayerContext context, int entityId, PacketContainer packet) {
+        PacketType type = packet.getType();
+        if (!TRACKED_PACKETS.contains(type))
+            return;
+        ResyncState state = context.resync;
+        synchronized (state) {
+            EntityState entity = state.entities.get(entityId);
+            if (entity == null)
+                return;
+            if (type == PacketType.Play.Server.ENTITY_HEAD_ROTATION) {
+                entity.headRotation = null;
+            } else if (type == PacketType.Play.Server.ENTITY_METADATA) {
+                List<WrappedDataValue> values = packet.getDataValueCollectionModifier().readSafely(0);
+                if (values != null) {
+                    if (entity.metadataValues != null) {
+                        for (WrappedDataValue value : values)
+                            entity.metadataValues.remove(value.getIndex());
+                        if (entity.metadataValues.isEmpty())
+                            entity.metadataValues = null;
+                    }
+                } else if (entity.metadata != null) {
+                    entity.metadata = withoutIndexesOf(entity.metadata, packet);
+                }
+            } else if (type == PacketType.Play.Server.ENTITY_EQUIPMENT) {
+                List<Pair<EnumWrappers.ItemSlot, ItemStack>> slots = packet.getSlotStackPairLists().readSafely(0);
+                if (entity.equipment != null && slots != null) {
+                    for (Pair<EnumWrappers.ItemSlot, ItemStack> slot : slots)
+                        entity.equipment.remove(slot.getFirst());
+                    if (entity.equipment.isEmpty())
+                        entity.equipment = null;
+                }
+            }
+            // the moves need nothing, as the flush sends the live position
+            if (entity.isEmpty())
+                state.remove(entityId);
+        }
+    }
+
+    /**
+     * @return a copy of the recorded metadata without the values the fresh one carries, or null if nothing is left
+     */
+    private static @Nullable PacketContainer withoutIndexesOf(PacketContainer recorded, PacketContainer fresh) {
+        List<WrappedWatchableObject> values = recorded.getWatchableCollectionModifier().readSafely(0);
+        List<WrappedWatchableObject> freshValues = fresh.getWatchableCollectionModifier().readSafely(0);
+        if (values == null || freshValues == null)
+            return null; // can't tell which values are out of date, and the fresh packet is the newer one
+        IntOpenHashSet freshIndexes = new IntOpenHashSet(freshValues.size());
+        for (WrappedWatchableObject value : freshValues)
+            freshIndexes.add(value.getIndex());
+        List<WrappedWatchableObject> kept = new ArrayList<>(values.size());
+        for (WrappedWatchableObject value : values) {
+            if (!freshIndexes.contains(value.getIndex()))
+                kept.add(value);
+        }
+        if (kept.isEmpty())
+            return null;
+        // the recorded packet may be the one broadcast to other players
+        PacketContainer copy = recorded.shallowClone();
+        copy.getWatchableCollectionModifier().write(0, kept);
+        return copy;
+    }
+
+    /**
+     * Forgets the recorded state of an entity removed from its world, so that the records of a long AFK only hold the
+     * entities which still exist. Can be called from any thread.
+     */
+    public void forget(int entityId) {
+        for (PlayerContext context : this.module.playerContexts.all().values()) {
+            if (!hasRecords(context))
+                continue;
+            synchronized (context.resync) {
+                context.resync.remove(entityId);
+            }
+        }
+    }
+
+    /**
+     * Sends the collapsed state recorded for the player, on the next tick.
+     */
+    public void flush(Player player, PlayerContext context) {
+        Schedulers.sync().run(() -> {
+            if (player.isOnline())
+                flushNow(player, context);
+        });
+    }
+
+    /**
+     * Sends the collapsed state recorded for the player. Must be called on the main thread.
+     */
+    public void flushNow(Player player, PlayerContext context) {
+        Int2ObjectOpenHashMap<EntityState> entities;
+        synchronized (context.resync) {
+            entities = context.resync.entities;
+            if (entities.isEmpty())
+                return;
+            context.resync.entities = new Int2ObjectOpenHashMap<>();
+            context.resync.recorded = false;
+        }
+
+        List<PacketContainer> packets = new ArrayList<>();
+        for (Int2ObjectMap.Entry<EntityState> entry : entities.int2ObjectEntrySet()) {
+            int entityId = entry.getIntKey();
+            EntityState entity = entry.getValue();
+            Entity live = this.protocolManager.getEntityFromID(player.getWorld(), entityId);
+            if (live == null)
+                continue; // gone, or out of this world, so the client has no such entity
+            if (entity.moved)
+                packets.add(teleport(entityId, live.getLocation(), live.isOnGround()));
+            if (entity.headRotation != null)
+                packets.add(entity.headRotation);
+            if (entity.metadata != null)
+                packets.add(entity.metadata);
+            if (entity.metadataValues != null)
+                packets.add(metadata(entityId, entity.metadataValues.values()));
+            if (entity.equipment != null)
+                packets.add(equipment(entityId, entity.equipment));
+        }
+        send(player, packets);
+        this.module.debug("Resynced " + entities.size() + " entities to " + player.getName() + " with " + packets.size() + " packets");
+    }
+
+    /**
+     * Sends the current position of the entities which moved since the last call, leaving the other streams recorded.
+     * Must be called on the main thread.
+     */
+    public void flushPositions(Player player, PlayerContext context) {
+        IntArrayList moved = new IntArrayList();
+        synchronized (context.resync) {
+            for (Int2ObjectMap.Entry<EntityState> entry : context.resync.entities.int2ObjectEntrySet()) {
+                if (entry.getValue().moved) {
+                    entry.getValue().moved = false;
+                    moved.add(entry.getIntKey());
+                }
+            }
+        }
+        if (moved.isEmpty())
+            return;
+        List<PacketContainer> packets = new ArrayList<>(moved.size());
+        for (int i = 0; i < moved.size(); i++) {
+            Entity live = this.protocolManager.getEntityFromID(player.getWorld(), moved.getInt(i));
+            if (live != null)
+                packets.add(teleport(moved.getInt(i), live.getLocation(), live.isOnGround()));
+        }
+        send(player, packets);
+    }
+
+    private void send(Player player, List<PacketContainer> packets) {
+        if (packets.isEmpty())
+            return;
+        if (PacketType.Play.Server.BUNDLE.isSupported()) {
+            PacketContainer bundle = new PacketContainer(PacketType.Play.Server.BUNDLE);
+            bundle.getPacketBundles().write(0, packets);
+            this.protocolManager.sendServerPacket(player, bundle, false);
+        } else {
+            for (PacketContainer packet : packets)
+                this.protocolManager.sendServerPacket(player, packet, false);
+        }
+    }
+
+    private static PacketContainer teleport(int entityId, Location location, boolean onGround) {
+        PacketContainer packet = new PacketContainer(PacketType.Play.Server.ENTITY_TELEPORT);
+        packet.getIntegers().write(0, entityId);
+        packet.getDoubles()
+                .write(0, location.getX())
+                .write(1, location.getY())
+                .write(2, location.getZ());
+        packet.getBytes()
+                .write(0, (byte) (location.getYaw() * 256F / 360F))
+                .write(1, (byte) (location.getPitch() * 256F / 360F));
+        packet.getBooleans().write(0, onGround);
+        return packet;
+    }
+
+    private static PacketContainer metadata(int entityId, Collection<WrappedDataValue> values) {
+        PacketContainer packet = new PacketContainer(PacketType.Play.Server.ENTITY_METADATA);
+        packet.getIntegers().write(0, entityId);
+        packet.getDataValueCollectionModifier().write(0, new ArrayList<>(values));
+        return packet;
+    }
+
+    private static PacketContainer equipment(int entityId, Map<EnumWrappers.ItemSlot, ItemStack> slots) {
+        List<Pair<EnumWrappers.ItemSlot, ItemStack>> pairs = new ArrayList<>(slots.size());
+        slots.forEach((slot, item) -> pairs.add(new Pair<>(slot, item)));
+        PacketContainer packet = new PacketContainer(PacketType.Play.Server.ENTITY_EQUIPMENT);
+        packet.getIntegers().write(0, entityId);
+        packet.getSlotStackPairLists().write(0, pairs);
+        return packet;
+    }
+
+    /**
+     * The packets kept from a player while they are AFK, guarded by itself.
+     */
+    static final class ResyncState {
+        private Int2ObjectOpenHashMap<EntityState> entities = new Int2ObjectOpenHashMap<>();
+        // whether the entities are not empty, read without the lock
+        private volatile boolean recorded;
+
+        private void remove(int entityId) {
+            if (this.entities.remove(entityId) != null && this.entities.isEmpty())
+                this.recorded = false;
+        }
+    }
+
+    private static final class EntityState {
+        private boolean moved;
+        private @Nullable PacketContainer headRotation;
+        private @Nullable PacketContainer metadata;
+        private @Nullable Int2ObjectLinkedOpenHashMap<WrappedDataValue> metadataValues;
+        private @Nullable Map<EnumWrappers.ItemSlot, ItemStack> equipment;
+
+        private boolean isEmpty() {
+            return !this.moved && this.headRotation == null && this.metadata == null && this.metadataValues == null && this.equipment == null;
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+package cc.mewcraft.mewutils.module.string_replacer;
+
+import it.unimi.dsi.fastutil.chars.Char2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Finds any of a fixed set of strings in a text with one pass over it, whatever the number of strings.
+ * <p>
+ * The trie is frozen into arrays after construction: each state has its transitions sorted by char, its failure link,
+ * and the patterns which end there, including those reached through the failure links. An instance is immutable.
+ */
+public final class AhoCorasick {
+
+    /**
+     * The state before any char, to start {@link #advance(int, CharSequence)} with.
+     */
+    public static final int START = 0;
+    /**
+     * The state returned by {@link #advance(int, CharSequence)} once any of the patterns occurs.
+     */
+    public static final int FOUND = -1;
+
+    private static final int[] NO_PATTERNS = new int[0];
+
+    private final char[][] keys; // state -> transition chars, sorted
+    private final int[][] targets; // state -> transition targets, in the order of the chars
+    private final int[] fail;
+    private final int[][] outputs; // state -> indexes of the patterns which end here
+
+    /**
+     * @param patterns the strings to find; empty ones are never found
+     */
+    public AhoCorasick(List<String> patterns) {
+        // build the trie
+        List<Char2IntOpenHashMap> trie = new ArrayList<>();
+        List<IntArrayList> ends = new ArrayList<>();
+        trie.add(new Char2IntOpenHashMap());
+        ends.add(new IntArrayList());
+        for (int p = 0; p < patterns.size(); p++) {
+            String pattern = patterns.get(p);
+            if (pattern.isEmpty())
+                continue;
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                Char2IntOpenHashMap transitions = trie.get(state);
+                int next = transitions.getOrDefault(pattern.charAt(i), -1);
+                if (next < 0) {
+                    next = trie.size();
+                    transitions.put(pattern.charAt(i), next);
+                    trie.add(new Char2IntOpenHashMap());
+                    ends.add(new IntArrayList());
+                }
+                state = next;
+            }
+            ends.get(state).add(p);
+        }
+
+        // freeze the transitions
+        int size = trie.size();
+        this.keys = new char[size][];
+        this.targets = new int[size][];
+        for (int state = 0; state < size; state++) {
+            char[] chars = trie.get(state).keySet().toCharArray();
+            Arrays.sort(chars);
+            int[] next = new int[chars.length];
+            for (int i = 0; i < chars.length; i++)
+                next[i] = trie.get(state).get(chars[i]);
+            this.keys[state] = chars;
+            this.targets[state] = next;
+        }
+
+        // breadth-first, so the failure link of a state is done before its children
+        this.fail = new int[size];
+        this.outputs = new int[size][];
+        this.outputs[0] = NO_PATTERNS;
+        IntArrayFIFOQueue queue = new IntArrayFIFOQueue();
+        for (int child : this.targets[0])
+            queue.enqueue(child);
+        for (int child : this.targets[0])
+            this.outputs[child] = ends.get(child).toIntArray();
+        while (!queue.isEmpty()) {
+            int state = queue.dequeueInt();
+            for (int i = 0; i < this.keys[state].length; i++) {
+                int child = this.targets[state][i];
+                int link = this.fail[state];
+                int target;
+                while ((target = transition(link, this.keys[state][i])) < 0 && link != 0)
+                    link = this.fail[link];
+                this.fail[child] = target >= 0 ? target : 0;
+
+                IntArrayList output = ends.get(child);
+                output.addAll(IntArrayList.wrap(this.outputs[this.fail[child]]));
+                this.outputs[child] = output.isEmpty() ? NO_PATTERNS : output.toIntArray();
+                queue.enqueue(child);
+            }
+        }
+    }
+
+    /**
+     * @return true if any of the patterns occurs in the text
+     */
+    public boolean containsAny(CharSequence text) {
+        return advance(START, text) == FOUND;
+    }
+
+    /**
+     * Scans a text which follows the one already scanned, so that a text given in pieces is scanned as a whole.
+     *
+     * @param state the state after the previous pieces, {@link #START} for the first one
+     * @return the state after the text, or {@link #FOUND} if any of the patterns occurs
+     */
+    public int advance(int state, CharSequence text) {
+        for (int i = 0, length = text.length(); i < length; i++) {
+            state = next(state, text.charAt(i));
+            if (this.outputs[state].length != 0)
+                return FOUND;
+        }
+        return state;
+    }
+
+    /**
+     * Sets the bits of the indexes of the patterns which occur in the text.
+     */
+    public void findAll(CharSequence text, BitSet found) {
+        int state = 0;
+        for (int i = 0, length = text.length(); i < length; i++) {
+            state = next(state, text.charAt(i));
+            for (int pattern : this.outputs[state])
+                found.set(pattern);
+        }
+    }
+
+    private int next(int state, char c) {
+        while (true) {
+            int target = transition(state, c);
+            if (target >= 0)
+                return target;
+            if (state == 0)
+                return 0;
+            state = this.fail[state];
+        }
+    }
+
+    /**
+     * @return the target of the transition, or -1 if there is none
+     */
+    private int transition(int state, char c) {
+        int i = Arrays.binarySearch(this.keys[state], c);
+        return i >= 0 ? this.targets[state][i] : -1;
+    }
+
+}
@@ -0,0 +1,461 @@
+package cc.mewcraft.mewutils.module.string_replacer;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.KeybindComponent;
+import net.kyori.adventure.text.TextComponent;
+import net.kyori.adventure.text.TranslatableComponent;
+import net.kyori.adventure.text.minimessage.MiniMessage;
+import net.kyori.adventure.text.minimessage.tag.Tag;
+import net.kyori.adventure.text.minimessage.tag.resolver.TagResolver;
+import net.kyori.adventure.text.serializer.gson.GsonComponentSerializer;
+import net.kyori.adventure.text.serializer.plain.PlainTextComponentSerializer;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Replaces the components whose plain text matches a rule, anywhere in a component tree.
+ * <p>
+ * The plain text of a component is its text, translation key or keybind, followed by those of its children, so styles,
+ * translation arguments and the order of the JSON keys don't matter. The rules are tried in order, and the first one
+ * which matches wins: the literal rules are looked up in a hash table, and only the pattern rules whose required
+ * literal occurs in the text are run. The JSON, or the plain text of a component given as a tree, is first scanned for
+ * the literals of all the rules with an {@link AhoCorasick} automaton, and only parsed and walked when one of them
+ * occurs. As a literal may be split across the styled segments of a component, the text, translation keys and
+ * keybinds of JSON with several segments are streamed through the automaton in the order of the plain text instead.
+ * Only the subtrees which match are rewritten. An instance is immutable, and can be shared by any threads.
+ */
+public final class ComponentReplacer {
+
+    // escapes strings the way the vanilla serializer does
+    private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+    // the keys of the content of a component which is plain text
+    private static final String[] CONTENT_KEYS = {"text", "translate", "keybind"};
+
+    /**
+     * A replacement rule.
+     */
+    public sealed interface Rule {}
+
+    /**
+     * @param match       the component to replace
+     * @param replacement the component to replace it with
+     */
+    public record Literal(Component match, Component replacement) implements Rule {}
+
+    /**
+     * @param pattern     the pattern the whole plain text of the component to replace has to match
+     * @param replacement the MiniMessage to replace it with, where {@code <group:1>} or {@code <group:name>} is the
+     *                    text of a capture group
+     */
+    public record Regex(Pattern pattern, String replacement) implements Rule {}
+
+    private final Rule[] rules;
+    // replacements of the rules, null for the pattern rules which use their capture groups
+    private final @Nullable Component[] replacements;
+    // replacement -> its JSON, for the replacements known at load
+    private final Map<Component, String> serialized;
+    // plain text -> index of the first literal rule with it, -1 if none
+    private final Object2IntOpenHashMap<String> literals;
+    // the pattern rules, and the rules without a literal to look for
+    private final BitSet patterns;
+    private final BitSet unfiltered;
+    private final AhoCorasick prefilter; // over the JSON
+    private final AhoCorasick plainPrefilter; // over the plain text, the indexes are those of the rules
+    // whether a rule has no literal to look for, so every component has to be parsed
+    private final boolean parseAll;
+
+    public ComponentReplacer(List<? extends Rule> rules) {
+        this.rules = rules.toArray(new Rule[0]);
+        this.replacements = new Component[this.rules.length];
+        this.literals = new Object2IntOpenHashMap<>();
+        this.literals.defaultReturnValue(-1);
+        this.patterns = new BitSet();
+        this.unfiltered = new BitSet();
+        List<String> literals = new ArrayList<>();
+        List<String> escapedLiterals = new ArrayList<>();
+        for (int i = 0; i < this.rules.length; i++) {
+            String literal;
+            if (this.rules[i] instanceof Literal rule) {
+                this.literals.putIfAbsent(plainText(rule.match()), i);
+                this.replacements[i] = rule.replacement();
+                literal = longestLiteral(rule.match());
+            } else {
+                Regex rule = (Regex) this.rules[i];
+                this.patterns.set(i);
+                if (!rule.replacement().toLowerCase(Locale.ROOT).contains("<group"))
+                    this.replacements[i] = MiniMessage.miniMessage().deserialize(rule.replacement());
+                String required = requiredLiteral(rule.pattern());
+                literal = required != null ? required : "";
+            }
+            if (literal.isEmpty())
+                this.unfiltered.set(i);
+            literals.add(literal);
+            escapedLiterals.add(escape(literal));
+        }
+        this.serialized = new IdentityHashMap<>();
+        for (Component replacement : this.replacements) {
+            if (replacement != null)
+                this.serialized.put(replacement, GsonComponentSerializer.gson().serialize(replacement));
+        }
+        this.prefilter = new AhoCorasick(escapedLiterals);
+        this.plainPrefilter = new AhoCorasick(literals);
+        this.parseAll = !this.unfiltered.isEmpty();
+    }
+
+    /**
+     * @param json the JSON of a component
+     * @return the JSON of the replaced component, or null if no rule applies
+     */
+    public @Nullable String replace(String json) {
+        if (this.rules.length == 0 || !this.parseAll && !this.prefilter.containsAny(json) && (!isSegmented(json) || !mayContainLiteral(json)))
+            return null;
+        Component component = GsonComponentSerializer.gson().deserialize(json);
+        String text = plainText(component);
+        // a literal split across styled segments is only found in the plain text
+        if (!this.parseAll && !this.plainPrefilter.containsAny(text))
+            return null;
+        Component replaced = rewrite(component, candidates(text));
+        if (replaced == component)
+            return null;
+        // the whole component is often replaced, by a replacement serialized at load
+        String serialized = this.serialized.get(replaced);
+        return serialized != null ? serialized : GsonComponentSerializer.gson().serialize(replaced);
+    }
+
+    /**
+     * @return the replaced component, or the same instance if no rule applies
+     */
+    public Component replace(Component component) {
+        if (this.rules.length == 0)
+            return component;
+        String text = plainText(component);
+        if (!this.parseAll && !this.plainPrefilter.containsAny(text))
+            return component;
+        return rewrite(component, candidates(text));
+    }
+
+    /**
+     * @param text the plain text of the whole tree
+     * @return the pattern rules which may match the tree or any of its subtrees
+     */
+    private BitSet candidates(String text) {
+        if (this.patterns.isEmpty())
+            return this.patterns;
+        // the plain text of a subtree is a part of that of the tree, so no other pattern can match it either
+        BitSet candidates = new BitSet(this.rules.length);
+        this.plainPrefilter.findAll(text, candidates);
+        candidates.or(this.unfiltered);
+        candidates.and(this.patterns);
+        return candidates;
+    }
+
+    private Component rewrite(Component component, BitSet candidates) {
+        String text = plainText(component);
+        int literal = this.literals.getInt(text);
+        // a pattern rule wins over a literal rule after it
+        for (int i = candidates.nextSetBit(0); i >= 0 && (literal < 0 || i < literal); i = candidates.nextSetBit(i + 1)) {
+            Matcher matcher = ((Regex) this.rules[i]).pattern().matcher(text);
+            if (matcher.matches())
+                return replacement(i, matcher);
+        }
+        if (literal >= 0)
+            return this.replacements[literal];
+        List<Component> children = component.children();
+        List<Component> replacedChildren = null;
+        for (int i = 0; i < children.size(); i++) {
+            Component child = children.get(i);
+            Component replaced = rewrite(child, candidates);
+            if (replaced != child) {
+                if (replacedChildren == null)
+                    replacedChildren = new ArrayList<>(children);
+                replacedChildren.set(i, replaced);
+            }
+        }
+        return replacedChildren != null ? component.children(replacedChildren) : component;
+    }
+
+    /**
+     * @return the replacement of the pattern rule, with the text of the capture groups
+     */
+    private Component replacement(int rule, Matcher matcher) {
+        Component replacement = this.replacements[rule];
+        if (replacement != null)
+            return replacement;
+        TagResolver groups = TagResolver.resolver("group", (arguments, context) -> {
+            String group = arguments.popOr("<group> needs the index or the name of a capture group").value();
+            String text;
+            try {
+                text = group.chars().allMatch(Character::isDigit)
+                        ? matcher.group(Integer.parseInt(group))
+                        : matcher.group(group);
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                text = null; // no such group
+            }
+            return Tag.selfClosingInserting(Component.text(text != null ? text : ""));
+        });
+        return MiniMessage.miniMessage().deserialize(((Regex) this.rules[rule]).replacement(), groups);
+    }
+
+    /**
+     * Scans the plain text of the JSON for the literals without building the component.
+     *
+     * @return false if the plain text contains no literal for sure
+     */
+    private boolean mayContainLiteral(String json) {
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            reader.setLenient(true); // like the serializer
+            return scan(reader, AhoCorasick.START) == AhoCorasick.FOUND;
+        } catch (IOException | RuntimeException e) {
+            return true; // let the serializer deal with it
+        }
+    }
+
+    /**
+     * Scans the plain text of the next component of the reader: its text, translation key or keybind, followed by those
+     * of its children. The children given before the content are scanned after it, so the state carries across the
+     * segments exactly as the text flows.
+     *
+     * @param state the state of the plain text prefilter after the text before the component
+     * @return the state after the component, or {@link AhoCorasick#FOUND}
+     */
+    private int scan(JsonReader reader, int state) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_ARRAY -> {
+                // the first element is the parent of the others, which follow its own children
+                reader.beginArray();
+                while (reader.hasNext() && state != AhoCorasick.FOUND)
+                    state = scan(reader, state);
+                if (state != AhoCorasick.FOUND)
+                    reader.endArray();
+                return state;
+            }
+            case BEGIN_OBJECT -> {
+                reader.beginObject();
+                boolean content = false;
+                JsonElement extra = null;
+                while (reader.hasNext() && state != AhoCorasick.FOUND) {
+                    switch (reader.nextName()) {
+                        case "text", "translate", "keybind" -> {
+                            String text = content ? null : primitive(reader);
+                            state = text != null ? this.plainPrefilter.advance(state, text) : AhoCorasick.FOUND;
+                            content = true;
+                        }
+                        case "extra" -> {
+                            if (content)
+                                state = scan(reader, state);
+                            else
+                                extra = JsonParser.parseReader(reader); // kept until the content is known
+                        }
+                        // rendered from more than a string, so not worth following
+                        case "score", "selector", "nbt" -> state = AhoCorasick.FOUND;
+                        default -> reader.skipValue();
+                    }
+                }
+                if (extra != null && state != AhoCorasick.FOUND)
+                    state = scan(extra, state);
+                if (state != AhoCorasick.FOUND)
+                    reader.endObject();
+                return state;
+            }
+            default -> {
+                String text = primitive(reader);
+                return text != null ? this.plainPrefilter.advance(state, text) : AhoCorasick.FOUND;
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #scan(JsonReader, int)}, for the children read ahead of the content.
+     */
+    private int scan(JsonElement element, int state) {
+        if (element.isJsonArray()) {
+            for (JsonElement child : element.getAsJsonArray()) {
+                state = scan(child, state);
+                if (state == AhoCorasick.FOUND)
+                    break;
+            }
+            return state;
+        }
+        if (element.isJsonPrimitive())
+            return this.plainPrefilter.advance(state, element.getAsString());
+        if (!element.isJsonObject())
+            return AhoCorasick.FOUND;
+        JsonObject object = element.getAsJsonObject();
+        if (object.has("score") || object.has("selector") || object.has("nbt"))
+            return AhoCorasick.FOUND;
+        boolean content = false;
+        for (String key : CONTENT_KEYS) {
+            JsonElement text = object.get(key);
+            if (text == null)
+                continue;
+            if (content || !text.isJsonPrimitive())
+                return AhoCorasick.FOUND;
+            state = this.plainPrefilter.advance(state, text.getAsString());
+            content = true;
+        }
+        JsonElement extra = object.get("extra");
+        return extra != null && state != AhoCorasick.FOUND ? scan(extra, state) : state;
+    }
+
+    /**
+     * @return the string, number or boolean the reader is at, or null if it is at something else
+     */
+    private static @Nullable String primitive(JsonReader reader) throws IOException {
+        return switch (reader.peek()) {
+            case STRING, NUMBER -> reader.nextString();
+            case BOOLEAN -> String.valueOf(reader.nextBoolean());
+            default -> null;
+        };
+    }
+
+    /**
+     * @return true if the JSON has more than one segment, so the literals may be split in it
+     */
+    private static boolean isSegmented(String json) {
+        // a quote in a string is escaped, so this is a key
+        return json.startsWith("[") || json.contains("\"extra\"");
+    }
+
+    private static String plainText(Component component) {
+        return PlainTextComponentSerializer.plainText().serialize(component);
+    }
+
+    /**
+     * @return the longest text, translation key or keybind in the tree, which has to occur in the JSON of a match
+     */
+    private static String longestLiteral(Component component) {
+        String longest = literal(component);
+        for (Component child : component.children()) {
+            String literal = longestLiteral(child);
+            if (literal.length() > longest.length())
+                longest = literal;
+        }
+        return longest;
+    }
+
+    private static String literal(Component component) {
+        if (component instanceof TextComponent text)
+            return text.content();
+        if (component instanceof TranslatableComponent translatable)
+            return translatable.key();
+        if (component instanceof KeybindComponent keybind)
+            return keybind.keybind();
+        return "";
+    }
+
+    /**
+     * Finds the longest run of plain chars outside of any group, alternation or quantifier, which every match of the
+     * pattern contains. When unsure, it gives up, as no literal only means the pattern is always run.
+     *
+     * @return the literal every match contains, or null if there is none
+     */
+    static @Nullable String requiredLiteral(Pattern pattern) {
+        String regex = pattern.pattern();
+        if (pattern.flags() != 0 || regex.contains("\\Q"))
+            return null;
+        String longest = "";
+        StringBuilder run = new StringBuilder();
+        boolean previousLiteral = false; // whether the last char of the run is the previous token
+        int depth = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            char literal = 0;
+            switch (c) {
+                case '\\' -> {
+                    if (++i == regex.length())
+                        return null;
+                    char escaped = regex.charAt(i);
+                    if (Character.isLetterOrDigit(escaped)) {
+                        // only the classes and the boundaries, which have no arguments
+                        if ("dDwWsSbBhHvVRXAzZG".indexOf(escaped) < 0)
+                            return null;
+                    } else {
+                        literal = escaped;
+                    }
+                }
+                case '(' -> {
+                    // inline flags, such as (?i), change how the rest is matched
+                    if (i + 2 < regex.length() && regex.charAt(i + 1) == '?' && ":<=!>".indexOf(regex.charAt(i + 2)) < 0)
+                        return null;
+                    depth++;
+                }
+                case ')' -> depth--;
+                case '[' -> i = endOfClass(regex, i);
+                case '|' -> {
+                    if (depth == 0)
+                        return null;
+                }
+                case '?', '*', '{' -> {
+                    // the previous char may not be there at all
+                    if (previousLiteral)
+                        run.setLength(run.length() - 1);
+                    if (c == '{')
+                        i = regex.indexOf('}', i) < 0 ? regex.length() : regex.indexOf('}', i);
+                }
+                case '+', '.', '^', '$' -> {}
+                default -> literal = c;
+            }
+            if (literal != 0 && depth == 0) {
+                run.append(literal);
+                previousLiteral = true;
+            } else {
+                if (run.length() > longest.length())
+                    longest = run.toString();
+                run.setLength(0);
+                previousLiteral = false;
+            }
+        }
+        if (run.length() > longest.length())
+            longest = run.toString();
+        return !longest.isEmpty() ? longest : null;
+    }
+
+    /**
+     * @return the index of the bracket closing the char class which starts at given index
+     */
+    private static int endOfClass(String regex, int start) {
+        int i = start + 1;
+        if (i < regex.length() && regex.charAt(i) == '^')
+            i++;
+        if (i < regex.length() && regex.charAt(i) == ']')
+            i++; // a bracket right after the opening one is a char
+        int depth = 1;
+        for (; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\')
+                i++;
+            else if (c == '[')
+                depth++;
+            else if (c == ']' && --depth == 0)
+                return i;
+        }
+        return regex.length();
+    }
+
+    /**
+     * @return the string as it appears inside a JSON string
+     */
+    private static String escape(String literal) {
+        String json = GSON.toJson(literal);
+        return json.substring(1, json.length() - 1);
+    }
+
+}
@@ -0,0 +1,142 @@
+package cc.mewcraft.mewutils.module.string_replacer;
+
+import com.google.common.cache.CacheStats;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerLocaleChangeEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Holds a {@link ReplacementCache} for each client locale with its own rules, and the one of each online player.
+ * <p>
+ * The table of a player is resolved from their locale when they join or change it, and kept in a map keyed by the
+ * player instance, which is copied on each change. A lookup from the Netty threads is then a lock-free identity hash
+ * lookup, with no locale involved.
+ */
+public class LocalizedReplacements implements Listener {
+
+    private final ReplacementCache fallback;
+    // locale, such as zh_cn, or language, such as zh -> table; read-only after construction
+    private final Map<String, ReplacementCache> tables;
+
+    // copy-on-write, guarded by this for writes
+    private volatile Map<Player, ReplacementCache> players;
+
+    /**
+     * @param fallback the table of the locales without their own
+     * @param tables   the tables of the locales, keyed by locale or language in lower case
+     */
+    public LocalizedReplacements(Collection<? extends Player> online, ReplacementCache fallback, Map<String, ReplacementCache> tables) {
+        this.fallback = fallback;
+        this.tables = Map.copyOf(tables);
+        Map<Player, ReplacementCache> players = new IdentityHashMap<>();
+        if (!this.tables.isEmpty()) {
+            for (Player player : online)
+                players.put(player, forLocale(player.getLocale()));
+        }
+        this.players = players;
+    }
+
+    /**
+     * @return the table of the player, or the fallback if the player has not joined yet
+     */
+    public ReplacementCache get(Player player) {
+        return this.players.getOrDefault(player, this.fallback);
+    }
+
+    /**
+     * @return true if players may have different tables, so a packet sent to several players must not be changed
+     */
+    public boolean isLocalized() {
+        return !this.tables.isEmpty();
+    }
+
+    /**
+     * @return the table of the locale, the table of its language, or the fallback
+     */
+    public ReplacementCache forLocale(String locale) {
+        String key = locale.toLowerCase(Locale.ROOT);
+        ReplacementCache table = this.tables.get(key);
+        if (table == null && key.indexOf('_') > 0)
+            table = this.tables.get(key.substring(0, key.indexOf('_')));
+        return table != null ? table : this.fallback;
+    }
+
+    /**
+     * @return the hits and misses of all the tables, or null if the cache is disabled
+     */
+    public @Nullable CacheStats stats() {
+        CacheStats stats = null;
+        for (ReplacementCache table : all()) {
+            CacheStats tableStats = table.stats();
+            if (tableStats != null)
+                stats = stats != null ? stats.plus(tableStats) : tableStats;
+        }
+        return stats;
+    }
+
+    /**
+     * @return the approximate number of entries of all the tables
+     */
+    public long size() {
+        long size = 0;
+        for (ReplacementCache table : all())
+            size += table.size();
+        return size;
+    }
+
+    public void invalidateAll() {
+        for (ReplacementCache table : all())
+            table.invalidateAll();
+    }
+
+    private List<ReplacementCache> all() {
+        List<ReplacementCache> all = new ArrayList<>(this.tables.values());
+        all.add(this.fallback);
+        return all;
+    }
+
+    private void put(Player player, String locale) {
+        if (this.tables.isEmpty())
+            return;
+        synchronized (this) {
+            Map<Player, ReplacementCache> players = new IdentityHashMap<>(this.players);
+            players.put(player, forLocale(locale));
+            this.players = players;
+        }
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onJoin(PlayerJoinEvent event) {
+        put(event.getPlayer(), event.getPlayer().getLocale());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onLocaleChange(PlayerLocaleChangeEvent event) {
+        put(event.getPlayer(), event.getLocale());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        if (this.tables.isEmpty())
+            return;
+        synchronized (this) {
+            Map<Player, ReplacementCache> players = new IdentityHashMap<>(this.players);
+            players.remove(event.getPlayer());
+            this.players = players;
+        }
+    }
+
+}
@@ -9,43 +9,68 @@ import com.comphenix.protocol.events.PacketContainer;
 import com.comphenix.protocol.events.PacketEvent;
 import com.comphenix.protocol.wrappers.WrappedChatComponent;
 import me.lucko.helper.terminable.Terminable;
+import org.bukkit.GameMode;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
 
 public class ProtocolLibHook implements Terminable {
 
     private final ProtocolManager protocolManager;
 
+    // packet type -> where the text is; packet types are canonical instances, read-only after construction
+    private final Map<PacketType, RewriteTarget> targets;
+
     // packet listeners
-    private final PacketAdapter inventoryTitleReplacer;
+    private final PacketAdapter textReplacer;
 
-    public ProtocolLibHook(final StringReplacerModule module) {
+    public ProtocolLibHook(final StringReplacerModule module, final Set<RewriteTarget> targets) {
         this.protocolManager = ProtocolLibrary.getProtocolManager();
 
+        this.targets = new IdentityHashMap<>();
+        for (RewriteTarget target : targets)
+            for (PacketType type : target.packetTypes())
+                this.targets.put(type, target);
+
         // --- define packet listeners ---
-        this.inventoryTitleReplacer = new PacketAdapter(
-                module.getParentPlugin(), ListenerPriority.HIGHEST, PacketType.Play.Server.OPEN_WINDOW
+        this.textReplacer = new PacketAdapter(
+                module.getParentPlugin(), ListenerPriority.HIGHEST, this.targets.keySet()
         ) {
             @Override public void onPacketSending(final PacketEvent event) {
                 PacketContainer packet = event.getPacket();
-                WrappedChatComponent component = packet.getChatComponents().readSafely(0);
-                if (component == null)
+                RewriteTarget target = ProtocolLibHook.this.targets.get(packet.getType());
+                if (target == null)
+                    return;
+                if (target == RewriteTarget.WINDOW_TITLE && module.getParentPlugin().isDevMode()) {
+                    WrappedChatComponent component = packet.getChatComponents().readSafely(0);
+                    if (component != null)
+                        module.info(component.getJson());
+                }
+                // A player in creative sends the items back as they see them, which would keep the replaced names for good
+                if (target == RewriteTarget.ITEM_NAME && (event.isPlayerTemporary() || event.getPlayer().getGameMode() == GameMode.CREATIVE))
                     return;
-                String oldValue = component.getJson();
-                if (module.getParentPlugin().isDevMode())
-                    module.info(oldValue);
-                String newValue = module.replacement.get(oldValue);
-                if (newValue != null) {
-                    component.setJson(newValue);
-                    packet.getChatComponents().write(0, component);
+                ReplacementCache replacements = module.replacements.get(event.getPlayer());
+                if (module.replacements.isLocalized()) {
+                    // The packet may be sent to players with other locales too, so it's only rewritten on a copy, and
+                    // only copied if a rule applies; the second pass is answered by the cache
+                    if (target.rewrite(packet, replacements, true)) {
+                        PacketContainer copy = target.copy(packet);
+                        target.rewrite(copy, replacements, false);
+                        event.setPacket(copy);
+                    }
+                } else {
+                    target.rewrite(packet, replacements, false);
                 }
             }
         };
 
         // --- register packet listeners ---
-        this.protocolManager.addPacketListener(this.inventoryTitleReplacer);
+        this.protocolManager.addPacketListener(this.textReplacer);
     }
 
     @Override public void close() {
-        this.protocolManager.removePacketListener(this.inventoryTitleReplacer);
+        this.protocolManager.removePacketListener(this.textReplacer);
     }
 
 }
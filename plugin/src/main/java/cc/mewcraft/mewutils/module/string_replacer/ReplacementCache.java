@@ -0,0 +1,104 @@
+package cc.mewcraft.mewutils.module.string_replacer;
+
+import com.comphenix.protocol.wrappers.WrappedChatComponent;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import net.kyori.adventure.text.Component;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Remembers the result of the {@link ComponentReplacer} for the text seen recently, as the same menus, titles and
+ * items are sent over and over.
+ * <p>
+ * Vanilla components are keyed by their JSON. Adventure components are keyed by identity, as their equality walks the
+ * whole tree; the instances kept by the server, such as the name of a boss bar, are sent again as they are. Both caches
+ * are size-bounded and concurrent, and hold a marker for the text which has nothing to replace, so a repeated text
+ * costs one hash lookup. The caches belong to one replacer, and are dropped along with it when the config is reloaded.
+ */
+public final class ReplacementCache {
+
+    private static final Object NO_CHANGE = new Object();
+
+    private final ComponentReplacer replacer;
+    private final @Nullable Cache<String, Object> jsonCache;
+    // weak keys are compared by identity, and don't keep the components of the server alive
+    private final @Nullable Cache<Component, Object> componentCache;
+
+    /**
+     * @param replacer the replacer to cache
+     * @param size     the maximum number of entries of each cache, non-positive to disable the caches
+     */
+    public ReplacementCache(ComponentReplacer replacer, long size) {
+        this.replacer = replacer;
+        this.jsonCache = size > 0
+                ? CacheBuilder.newBuilder().maximumSize(size).recordStats().<String, Object>build()
+                : null;
+        this.componentCache = size > 0
+                ? CacheBuilder.newBuilder().weakKeys().maximumSize(size).recordStats().<Component, Object>build()
+                : null;
+    }
+
+    /**
+     * @param json the JSON of a vanilla component
+     * @return the replaced component, or null if no rule applies
+     */
+    public @Nullable WrappedChatComponent replace(String json) {
+        Object result = this.jsonCache != null ? this.jsonCache.getIfPresent(json) : null;
+        if (result == null) {
+            String replaced = this.replacer.replace(json);
+            result = replaced != null ? WrappedChatComponent.fromJson(replaced) : NO_CHANGE;
+            if (this.jsonCache != null)
+                this.jsonCache.put(json, result);
+        }
+        return result != NO_CHANGE ? (WrappedChatComponent) result : null;
+    }
+
+    /**
+     * @return the replaced component, or the same instance if no rule applies
+     */
+    public Component replace(Component component) {
+        Object result = this.componentCache != null ? this.componentCache.getIfPresent(component) : null;
+        if (result == null) {
+            Component replaced = this.replacer.replace(component);
+            result = replaced != component ? replaced : NO_CHANGE;
+            if (this.componentCache != null)
+                this.componentCache.put(component, result);
+        }
+        return result != NO_CHANGE ? (Component) result : component;
+    }
+
+    /**
+     * @return the replacer behind this cache
+     */
+    public ComponentReplacer replacer() {
+        return this.replacer;
+    }
+
+    /**
+     * @return the hits and misses of both caches since they were created, or null if they are disabled
+     */
+    public @Nullable CacheStats stats() {
+        return this.jsonCache != null && this.componentCache != null
+                ? this.jsonCache.stats().plus(this.componentCache.stats())
+                : null;
+    }
+
+    /**
+     * @return the approximate number of entries
+     */
+    public long size() {
+        return this.jsonCache != null && this.componentCache != null
+                ? this.jsonCache.size() + this.componentCache.size()
+                : 0;
+    }
+
+    public void invalidateAll() {
+        if (this.jsonCache != null)
+            this.jsonCache.invalidateAll();
+        if (this.componentCache != null)
+            this.componentCache.invalidateAll();
+    }
+
+}
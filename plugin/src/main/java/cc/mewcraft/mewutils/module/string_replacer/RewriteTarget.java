@@ -0,0 +1,228 @@
+package cc.mewcraft.mewutils.module.string_replacer;
+
+import com.comphenix.protocol.PacketType;
+import com.comphenix.protocol.events.InternalStructure;
+import com.comphenix.protocol.events.PacketContainer;
+import com.comphenix.protocol.reflect.StructureModifier;
+import com.comphenix.protocol.utility.MinecraftReflection;
+import com.comphenix.protocol.wrappers.WrappedChatComponent;
+import com.comphenix.protocol.wrappers.nbt.NbtCompound;
+import com.comphenix.protocol.wrappers.nbt.NbtFactory;
+import com.comphenix.protocol.wrappers.nbt.NbtWrapper;
+import net.kyori.adventure.text.Component;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Where the text to replace is in each kind of packet.
+ * <p>
+ * The components are read in the form the packet holds them: vanilla components through their JSON, and the Adventure
+ * components Paper keeps on some packets directly. Either way, the {@link ReplacementCache} answers most of them with
+ * one lookup, and nothing is written back unless a rule applies. All of it runs on the thread sending the packet.
+ */
+public enum RewriteTarget {
+    WINDOW_TITLE(PacketType.Play.Server.OPEN_WINDOW) {
+        @Override boolean rewrite(PacketContainer packet, ReplacementCache replacements, boolean dryRun) {
+            return rewriteComponents(packet, replacements, dryRun);
+        }
+    },
+    SYSTEM_CHAT(PacketType.Play.Server.SYSTEM_CHAT) {
+        @Override boolean rewrite(PacketContainer packet, ReplacementCache replacements, boolean dryRun) {
+            boolean changed = rewriteComponents(packet, replacements, dryRun);
+            // Some versions hold the content as JSON
+            StructureModifier<String> strings = packet.getStrings();
+            for (int i = 0; i < strings.size(); i++) {
+                String json = strings.read(i);
+                WrappedChatComponent replaced = json != null ? replacements.replace(json) : null;
+                if (replaced != null) {
+                    if (dryRun)
+                        return true;
+                    strings.write(i, replaced.getJson());
+                    changed = true;
+                }
+            }
+            return changed;
+        }
+    },
+    SCOREBOARD_OBJECTIVE(PacketType.Play.Server.SCOREBOARD_OBJECTIVE) {
+        @Override boolean rewrite(PacketContainer packet, ReplacementCache replacements, boolean dryRun) {
+            return rewriteComponents(packet, replacements, dryRun);
+        }
+    },
+    SCOREBOARD_TEAM(PacketType.Play.Server.SCOREBOARD_TEAM) {
+        @Override boolean rewrite(PacketContainer packet, ReplacementCache replacements, boolean dryRun) {
+            // The display name, prefix and suffix are in the optional parameters
+            Optional<InternalStructure> parameters = packet.getOptionalStructures().readSafely(0);
+            return parameters != null && parameters.isPresent() && rewriteComponents(parameters.get().getChatComponents(), replacements, dryRun);
+        }
+
+        @Override PacketContainer copy(PacketContainer packet) {
+            return packet.deepClone(); // the parameters are written in place
+        }
+    },
+    BOSS_BAR(PacketType.Play.Server.BOSS) {
+        @Override boolean rewrite(PacketContainer packet, ReplacementCache replacements, boolean dryRun) {
+            // The name is in the operation, which is the field after the id
+            InternalStructure operation = packet.getStructures().readSafely(1);
+            return operation != null && rewriteComponents(operation.getChatComponents(), replacements, dryRun);
+        }
+
+        @Override PacketContainer copy(PacketContainer packet) {
+            return packet.deepClone(); // the operation is written in place
+        }
+    },
+    TITLE(PacketType.Play.Server.SET_TITLE_TEXT, PacketType.Play.Server.SET_SUBTITLE_TEXT, PacketType.Play.Server.SET_ACTION_BAR_TEXT) {
+        @Override boolean rewrite(PacketContainer packet, ReplacementCache replacements, boolean dryRun) {
+            return rewriteComponents(packet, replacements, dryRun);
+        }
+    },
+    TAB_LIST(PacketType.Play.Server.PLAYER_LIST_HEADER_FOOTER) {
+        @Override boolean rewrite(PacketContainer packet, ReplacementCache replacements, boolean dryRun) {
+            return rewriteComponents(packet, replacements, dryRun);
+        }
+    },
+    ITEM_NAME(PacketType.Play.Server.WINDOW_ITEMS, PacketType.Play.Server.SET_SLOT) {
+        @Override boolean rewrite(PacketContainer packet, ReplacementCache replacements, boolean dryRun) {
+            boolean changed = false;
+            StructureModifier<List<ItemStack>> lists = packet.getItemListModifier();
+            for (int i = 0; i < lists.size(); i++) {
+                List<ItemStack> items = lists.read(i);
+                if (items == null)
+                    continue;
+                List<ItemStack> replacedItems = null;
+                for (int j = 0; j < items.size(); j++) {
+                    ItemStack replaced = rewriteItem(items.get(j), replacements);
+                    if (replaced != null) {
+                        if (dryRun)
+                            return true;
+                        if (replacedItems == null)
+                            replacedItems = new ArrayList<>(items);
+                        replacedItems.set(j, replaced);
+                    }
+                }
+                if (replacedItems != null) {
+                    lists.write(i, replacedItems);
+                    changed = true;
+                }
+            }
+            // The slot of SET_SLOT, or the carried item of WINDOW_ITEMS
+            StructureModifier<ItemStack> stacks = packet.getItemModifier();
+            for (int i = 0; i < stacks.size(); i++) {
+                ItemStack replaced = rewriteItem(stacks.read(i), replacements);
+                if (replaced != null) {
+                    if (dryRun)
+                        return true;
+                    stacks.write(i, replaced);
+                    changed = true;
+                }
+            }
+            return changed;
+        }
+    };
+
+    private final List<PacketType> packetTypes;
+
+    RewriteTarget(PacketType... packetTypes) {
+        this.packetTypes = List.copyOf(Arrays.asList(packetTypes));
+    }
+
+    /**
+     * @return the packet types of this target which exist on this server
+     */
+    public List<PacketType> packetTypes() {
+        return this.packetTypes.stream().filter(PacketType::isSupported).toList();
+    }
+
+    /**
+     * Replaces the text in the packet, in place.
+     *
+     * @param dryRun whether to only find out if anything would be replaced, leaving the packet as it is
+     * @return true if anything was replaced, or would be
+     */
+    abstract boolean rewrite(PacketContainer packet, ReplacementCache replacements, boolean dryRun);
+
+    /**
+     * @return a copy of the packet which can be rewritten without changing the original
+     */
+    PacketContainer copy(PacketContainer packet) {
+        return packet.shallowClone();
+    }
+
+    /**
+     * Replaces the vanilla components and the Adventure components of the packet.
+     */
+    private static boolean rewriteComponents(PacketContainer packet, ReplacementCache replacements, boolean dryRun) {
+        boolean changed = rewriteComponents(packet.getChatComponents(), replacements, dryRun);
+        // Paper keeps the Adventure components of some packets as they are, until they are encoded
+        StructureModifier<Component> adventure = packet.getSpecificModifier(Component.class);
+        for (int i = 0; i < adventure.size(); i++) {
+            Component component = adventure.read(i);
+            if (component == null)
+                continue;
+            Component replaced = replacements.replace(component);
+            if (replaced != component) {
+                if (dryRun)
+                    return true;
+                adventure.write(i, replaced);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static boolean rewriteComponents(StructureModifier<WrappedChatComponent> components, ReplacementCache replacements, boolean dryRun) {
+        boolean changed = false;
+        for (int i = 0; i < components.size(); i++) {
+            WrappedChatComponent component = components.read(i);
+            if (component == null)
+                continue;
+            WrappedChatComponent replaced = replacements.replace(component.getJson());
+            if (replaced != null) {
+                if (dryRun)
+                    return true;
+                components.write(i, replaced);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return a copy of the item with its name replaced, or null if no rule applies
+     */
+    private static @Nullable ItemStack rewriteItem(@Nullable ItemStack item, ReplacementCache replacements) {
+        // The name is read from the tag as it is, so the meta is neither copied nor parsed unless a rule applies
+        if (item == null || !MinecraftReflection.isCraftItemStack(item))
+            return null;
+        NbtCompound display = display(item);
+        if (display == null || !display.containsKey("Name"))
+            return null;
+        WrappedChatComponent replaced = replacements.replace(display.getString("Name"));
+        if (replaced == null)
+            return null;
+        // The item is a mirror of the one on the server, which must not be changed
+        ItemStack copy = item.clone();
+        NbtCompound copyDisplay = display(copy);
+        if (copyDisplay == null)
+            return null;
+        copyDisplay.put("Name", replaced.getJson());
+        return copy;
+    }
+
+    /**
+     * @return the display compound of the tag of the item, not copied, or null if it has none
+     */
+    private static @Nullable NbtCompound display(ItemStack item) {
+        Optional<NbtWrapper<?>> tag = NbtFactory.fromItemOptional(item);
+        if (tag.isEmpty() || !(tag.get() instanceof NbtCompound compound) || !compound.containsKey("display"))
+            return null;
+        return compound.getValue("display") instanceof NbtCompound display ? display : null;
+    }
+
+}
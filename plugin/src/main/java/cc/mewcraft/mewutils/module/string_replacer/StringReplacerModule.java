@@ -2,20 +2,45 @@ package cc.mewcraft.mewutils.module.string_replacer;
 
 import cc.mewcraft.mewutils.MewPlugin;
 import cc.mewcraft.mewutils.module.ModuleBase;
+import com.google.common.cache.CacheStats;
 import com.google.inject.Inject;
 import io.leangen.geantyref.TypeToken;
+import me.lucko.helper.Schedulers;
 import me.lucko.helper.function.chain.Chain;
+import me.lucko.helper.utils.Players;
+import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.minimessage.MiniMessage;
 import net.kyori.adventure.text.serializer.gson.GsonComponentSerializer;
+import org.bukkit.GameMode;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerGameModeChangeEvent;
+import org.spongepowered.configurate.ConfigurationNode;
+import org.spongepowered.configurate.serialize.SerializationException;
 
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 public class StringReplacerModule extends ModuleBase implements Listener {
 
-    Map<String, String> replacement;
+    /**
+     * Replaces the text, compiled from the config for each locale, behind caches of the recent results.
+     */
+    LocalizedReplacements replacements;
+    /**
+     * The kinds of packets whose text is replaced.
+     */
+    Set<RewriteTarget> targets;
 
     @Inject
     public StringReplacerModule(final MewPlugin parent) {
@@ -23,26 +48,118 @@ public class StringReplacerModule extends ModuleBase implements Listener {
     }
 
     @Override protected void load() throws Exception {
-        this.replacement = new HashMap<>();
-
         // Read the config values
 
-        configNode().node("replacement").getList(new TypeToken<Map<String, String>>() {}, List.of())
+        List<ComponentReplacer.Rule> rules = parseRules(configNode().node("replacement"));
+        long cacheSize = configNode().node("cache", "size").getLong(4096);
+
+        // Each locale has its own rules first, then those of all locales
+        Map<String, ReplacementCache> tables = new HashMap<>();
+        for (Map.Entry<Object, ? extends ConfigurationNode> entry : configNode().node("locales").childrenMap().entrySet()) {
+            List<ComponentReplacer.Rule> localeRules = parseRules(entry.getValue());
+            localeRules.addAll(rules);
+            tables.put(entry.getKey().toString().toLowerCase(Locale.ROOT), new ReplacementCache(new ComponentReplacer(localeRules), cacheSize));
+        }
+        this.replacements = new LocalizedReplacements(Players.all(), new ReplacementCache(new ComponentReplacer(rules), cacheSize), tables);
+
+        this.targets = EnumSet.noneOf(RewriteTarget.class);
+        for (String name : configNode().node("targets").getList(String.class, List.of("WINDOW_TITLE"))) {
+            try {
+                this.targets.add(RewriteTarget.valueOf(name.toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                warn("Unknown target: " + name);
+            }
+        }
+    }
+
+    /**
+     * @return the rules of given list, in order
+     */
+    private List<ComponentReplacer.Rule> parseRules(ConfigurationNode node) throws SerializationException {
+        List<ComponentReplacer.Rule> rules = new ArrayList<>();
+        node.getList(new TypeToken<Map<String, String>>() {}, List.of())
                 .forEach(map -> {
                     String oldValue = map.get("old");
+                    String patternValue = map.get("pattern");
                     String newValue = map.get("new");
+                    if (newValue == null)
+                        return;
+                    if (patternValue != null) {
+                        try {
+                            rules.add(new ComponentReplacer.Regex(Pattern.compile(patternValue), newValue));
+                        } catch (PatternSyntaxException e) {
+                            warn("Invalid pattern: " + e.getMessage());
+                        }
+                        return;
+                    }
+                    if (oldValue == null)
+                        return;
                     Chain.start(newValue)
                             .map(MiniMessage.miniMessage()::deserialize)
-                            .map(GsonComponentSerializer.gson()::serialize)
                             .end()
-                            .ifPresent(gsonString ->
-                                    this.replacement.put(oldValue, gsonString)
+                            .ifPresent(component ->
+                                    rules.add(new ComponentReplacer.Literal(parseComponent(oldValue), component))
                             );
                 });
+        return rules;
+    }
+
+    /**
+     * @return the component of given JSON, or a text component if it is not JSON
+     */
+    private static Component parseComponent(String value) {
+        String trimmed = value.trim();
+        if (trimmed.startsWith("{") || trimmed.startsWith("[") || trimmed.startsWith("\""))
+            return GsonComponentSerializer.gson().deserialize(trimmed);
+        return Component.text(value);
+    }
+
+    @Override protected void enable() {
+        registerListenerAndBind(this.replacements);
+        if (this.targets.contains(RewriteTarget.ITEM_NAME))
+            registerListenerAndBind(this);
+
+        registerCommand(registry -> registry
+                .commandBuilder("mewutils")
+                .permission("mew.admin")
+                .literal("replacerstats")
+                .handler(commandContext -> {
+                    CommandSender sender = commandContext.getSender();
+                    CacheStats stats = this.replacements.stats();
+                    if (stats == null) {
+                        translations().of("cache.disabled").send(sender);
+                        return;
+                    }
+                    translations().of("cache.stats")
+                            .replace("size", this.replacements.size())
+                            .replace("hits", stats.hitCount())
+                            .replace("misses", stats.missCount())
+                            .replace("rate", String.format("%.1f", stats.hitRate() * 100))
+                            .replace("evictions", stats.evictionCount())
+                            .send(sender);
+                })
+        );
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onGameModeChange(PlayerGameModeChangeEvent event) {
+        // The items were sent with replaced names, which the player would send back in creative
+        if (event.getNewGameMode() == GameMode.CREATIVE) {
+            Player player = event.getPlayer();
+            Schedulers.sync().run(() -> {
+                if (player.isOnline())
+                    player.updateInventory();
+            });
+        }
     }
 
     @Override protected void postEnable() {
-        new ProtocolLibHook(this).bindWith(this);
+        new ProtocolLibHook(this, this.targets).bindWith(this);
+    }
+
+    @Override protected void disable() {
+        // The rules may change before the next load
+        this.replacements.invalidateAll();
     }
 
     @Override public boolean checkRequirement() {
@@ -0,0 +1,101 @@
+package cc.mewcraft.mewutils.module.ore_announcer;
+
+import cc.mewcraft.mewutils.MewPlugin;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DiscoveryJournalTest {
+
+    private static final int ENTRIES = 1_000_000;
+    private static final UUID OVERWORLD = new UUID(1, 1);
+    private static final UUID NETHER = new UUID(2, 2);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void replaysOneMillionEntries() throws IOException {
+        OreAnnouncerModule module = new OreAnnouncerModule(plugin(this.directory.resolve("plugin")));
+        long now = System.currentTimeMillis();
+
+        // the first half ends up in the snapshot, as every replay compacts
+        DiscoveryJournal writer = new DiscoveryJournal(module, this.directory.resolve("journal"), 0, Long.MAX_VALUE);
+        writer.replay(new DiscoveredIndex(0));
+        for (int i = 0; i < ENTRIES / 2; i++)
+            append(writer, i, now);
+        writer.close();
+        writer = new DiscoveryJournal(module, this.directory.resolve("journal"), 0, Long.MAX_VALUE);
+        assertEquals(ENTRIES / 2, writer.replay(new DiscoveredIndex(0)));
+
+        // and the second half in the journal, over many mapped segments
+        for (int i = ENTRIES / 2; i < ENTRIES; i++)
+            append(writer, i, now);
+        writer.close();
+
+        DiscoveryJournal journal = new DiscoveryJournal(module, this.directory.resolve("journal"), 0, Long.MAX_VALUE);
+        DiscoveredIndex index = new DiscoveredIndex(0);
+        long start = System.nanoTime();
+        long replayed = journal.replay(index);
+        long elapsed = System.nanoTime() - start;
+        journal.close();
+        System.out.println("Replayed " + replayed + " entries in " + TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms");
+
+        assertEquals(ENTRIES, replayed);
+        assertEquals(ENTRIES, index.size());
+        for (int i = 0; i < ENTRIES; i += 997) {
+            assertTrue(index.contains(world(i), x(i), y(i), z(i)), "entry " + i);
+            assertFalse(index.contains(world(i + 1), x(i), y(i), z(i)), "entry " + i + " in the other world");
+        }
+        assertTrue(index.contains(world(ENTRIES - 1), x(ENTRIES - 1), y(ENTRIES - 1), z(ENTRIES - 1)));
+    }
+
+    private static void append(DiscoveryJournal journal, int i, long now) {
+        journal.append(world(i), DiscoveredIndex.blockKey(x(i), y(i), z(i)), now - i);
+    }
+
+    // every entry has its own x and z, spread over both worlds and signs
+
+    private static UUID world(int i) {
+        return (i & 1) == 0 ? OVERWORLD : NETHER;
+    }
+
+    private static int x(int i) {
+        return i % 1000 - 500;
+    }
+
+    private static int y(int i) {
+        return i % 384 - 64;
+    }
+
+    private static int z(int i) {
+        return i / 1000 - 500;
+    }
+
+    /**
+     * @return a stand-in plugin, enough to construct the module
+     */
+    private static MewPlugin plugin(Path dataFolder) {
+        Logger logger = Logger.getLogger("MewUtils");
+        Object proxy = Proxy.newProxyInstance(MewPlugin.class.getClassLoader(), new Class<?>[]{MewPlugin.class}, (self, method, args) -> switch (method.getName()) {
+            case "equals" -> self == args[0];
+            case "hashCode" -> System.identityHashCode(self);
+            case "getName" -> "MewUtils";
+            case "getLogger" -> logger;
+            case "getDataFolder" -> dataFolder.toFile();
+            default -> method.getReturnType() == boolean.class ? false : null;
+        });
+        return (MewPlugin) proxy;
+    }
+
+}
@@ -0,0 +1,185 @@
+package cc.mewcraft.mewutils.module.string_replacer;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.format.NamedTextColor;
+import net.kyori.adventure.text.serializer.gson.GsonComponentSerializer;
+import net.kyori.adventure.text.serializer.plain.PlainTextComponentSerializer;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ComponentReplacerTest {
+
+    // --- requiredLiteral ---
+
+    @Test
+    void requiredLiteralOfPlainPrefix() {
+        assertEquals("Shop - ", literal("Shop - (.+)"));
+        assertEquals("foo.bar", literal("foo\\.bar"));
+    }
+
+    @Test
+    void requiredLiteralGivesUpOnAlternation() {
+        assertNull(literal("Shop|Store"));
+        assertNull(literal("Shop - (.+)|Store"));
+        // inside a group, the alternation only rules out the group
+        assertEquals(" - ", literal("(?:Shop|Store) - (.+)"));
+    }
+
+    @Test
+    void requiredLiteralSkipsOptionalParts() {
+        assertEquals("cd", literal("ab?cd"));
+        assertEquals("def", literal("abc*def"));
+        assertEquals("yz", literal("x{2}yz"));
+        assertEquals("Menu", literal("Menu( Page)? (\\d+)"));
+    }
+
+    @Test
+    void requiredLiteralSkipsCharClasses() {
+        assertEquals(" tail", literal("[Shop]+ tail"));
+        assertEquals("xyz", literal("[a|b]xyz"));
+        assertEquals("post", literal("pre[^]x]post"));
+        assertNull(literal("[a-z]+\\d+"));
+    }
+
+    @Test
+    void requiredLiteralGivesUpOnQuotesAndFlags() {
+        assertNull(literal("\\Qa.b\\E"));
+        assertNull(literal("(?i)Shop"));
+        assertNull(ComponentReplacer.requiredLiteral(Pattern.compile("Shop", Pattern.CASE_INSENSITIVE)));
+        // an escape with an argument
+        assertNull(literal("Bank\\x41"));
+    }
+
+    @Test
+    void requiredLiteralIsInEveryMatch() {
+        List<String> patterns = List.of("Shop - (.+)", "Level \\d+ of (?<name>\\w+)", "ab?cd", "[Shop]+ x(abc)? tail", "foo\\.bar+baz");
+        List<String> samples = List.of("Shop - Weapons", "Level 3 of Steve", "acd", "abcd", "ShopS x tail", "Sx abc tail", "foo.barrrbaz");
+        for (String regex : patterns) {
+            Pattern pattern = Pattern.compile(regex);
+            String literal = ComponentReplacer.requiredLiteral(pattern);
+            assertNotNull(literal, regex);
+            for (String sample : samples) {
+                if (pattern.matcher(sample).matches())
+                    assertTrue(sample.contains(literal), regex + " matches " + sample + " without " + literal);
+            }
+        }
+    }
+
+    // --- capture groups ---
+
+    @Test
+    void captureGroupsAreSubstituted() {
+        ComponentReplacer replacer = new ComponentReplacer(List.of(
+                new ComponentReplacer.Regex(Pattern.compile("Shop - (?<name>.+) \\((\\d+)\\)"), "<gold>Store <group:name> #<group:2>")
+        ));
+        assertEquals("Store Weapons #3", plain(replacer.replace(Component.text("Shop - Weapons (3)"))));
+    }
+
+    @Test
+    void captureGroupsAreInsertedAsText() {
+        ComponentReplacer replacer = new ComponentReplacer(List.of(
+                new ComponentReplacer.Regex(Pattern.compile("Shop - (.+)"), "Store - <group:1>")
+        ));
+        assertEquals("Store - <red>Weapons", plain(replacer.replace(Component.text("Shop - <red>Weapons"))));
+    }
+
+    @Test
+    void unknownGroupIsEmpty() {
+        ComponentReplacer replacer = new ComponentReplacer(List.of(
+                new ComponentReplacer.Regex(Pattern.compile("Shop - (.+)"), "Store<group:missing><group:5>")
+        ));
+        assertEquals("Store", plain(replacer.replace(Component.text("Shop - Weapons"))));
+    }
+
+    // --- ordering ---
+
+    @Test
+    void literalRuleWinsOverLaterRegexRule() {
+        ComponentReplacer replacer = new ComponentReplacer(List.of(
+                new ComponentReplacer.Literal(Component.text("Shop - Weapons"), Component.text("literal")),
+                new ComponentReplacer.Regex(Pattern.compile("Shop - (.+)"), "regex")
+        ));
+        assertEquals("literal", plain(replacer.replace(Component.text("Shop - Weapons"))));
+        assertEquals("regex", plain(replacer.replace(Component.text("Shop - Armor"))));
+    }
+
+    @Test
+    void rulesApplyInConfigOrder() {
+        ComponentReplacer replacer = new ComponentReplacer(List.of(
+                new ComponentReplacer.Regex(Pattern.compile("Shop - (.+)"), "regex"),
+                new ComponentReplacer.Literal(Component.text("Shop - Weapons"), Component.text("literal"))
+        ));
+        assertEquals("regex", plain(replacer.replace(Component.text("Shop - Weapons"))));
+    }
+
+    @Test
+    void literalRuleMatchesStyledSegments() {
+        ComponentReplacer replacer = new ComponentReplacer(List.of(
+                new ComponentReplacer.Literal(Component.text("Menu 1"), Component.text("replaced"))
+        ));
+        String json = GsonComponentSerializer.gson().serialize(Component.text()
+                .append(Component.text("Me", NamedTextColor.RED))
+                .append(Component.text("nu 1"))
+                .build());
+        String replaced = replacer.replace(json);
+        assertNotNull(replaced);
+        assertEquals("replaced", plain(GsonComponentSerializer.gson().deserialize(replaced)));
+    }
+
+    @Test
+    void literalRuleMatchesSegmentsBeforeTheirParent() {
+        ComponentReplacer replacer = new ComponentReplacer(List.of(
+                new ComponentReplacer.Literal(Component.text("Menu 1"), Component.text("replaced"))
+        ));
+        // the vanilla serializer writes the children before the text
+        String replaced = replacer.replace("{\"extra\":[{\"text\":\"nu 1\"}],\"text\":\"Me\"}");
+        assertNotNull(replaced);
+        assertEquals("replaced", plain(GsonComponentSerializer.gson().deserialize(replaced)));
+        // the same segments the other way round
+        assertNull(replacer.replace("{\"extra\":[{\"text\":\"Me\",\"color\":\"red\"}],\"text\":\"nu 1\"}"));
+    }
+
+    // --- prefilter ---
+
+    @Test
+    void textWithoutAnyLiteralIsSkipped() {
+        ComponentReplacer replacer = new ComponentReplacer(List.of(
+                new ComponentReplacer.Literal(Component.text("Menu 1"), Component.text("replaced")),
+                new ComponentReplacer.Regex(Pattern.compile("Shop - (.+)"), "regex")
+        ));
+        Component chest = Component.translatable("container.chest");
+        assertNull(replacer.replace(GsonComponentSerializer.gson().serialize(chest)));
+        assertSame(chest, replacer.replace(chest));
+    }
+
+    @Test
+    void regexRuleWithoutLiteralIsAlwaysRun() {
+        ComponentReplacer replacer = new ComponentReplacer(List.of(
+                new ComponentReplacer.Literal(Component.text("Menu 1"), Component.text("replaced")),
+                new ComponentReplacer.Regex(Pattern.compile("\\d+"), "number")
+        ));
+        assertEquals("number", plain(replacer.replace(Component.text("42"))));
+        String replaced = replacer.replace("{\"text\":\"42\"}");
+        assertNotNull(replaced);
+        assertEquals("number", plain(GsonComponentSerializer.gson().deserialize(replaced)));
+        // and still nothing is replaced when nothing matches
+        assertNull(replacer.replace("{\"translate\":\"container.chest\"}"));
+    }
+
+    private static String literal(String regex) {
+        return ComponentReplacer.requiredLiteral(Pattern.compile(regex));
+    }
+
+    private static String plain(Component component) {
+        return PlainTextComponentSerializer.plainText().serialize(component);
+    }
+
+}